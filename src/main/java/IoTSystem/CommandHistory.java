@@ -0,0 +1,323 @@
+package IoTSystem;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Audit trail of handled commands kept in a fixed-capacity ring. Appends are lock-free;
+ * once the ring wraps the oldest records are overwritten, or handed to an optional spill
+ * sink first. Closing the history closes the sink. Records are stamped in sequence order
+ * from a monotonic clock, so the ring is sorted by timestamp.
+ */
+public class CommandHistory implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final int mask;
+    private final AtomicReferenceArray<Record> slots;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Consumer<Record> spill;
+    // Wall clock at creation, advanced by System.nanoTime so stamps never go backwards
+    private final long originMillis = System.currentTimeMillis();
+    private final long originNanos = System.nanoTime();
+
+    /**
+     * @param capacity number of records kept in memory, rounded up to a power of two
+     * @param spill receives records that are about to be overwritten, or null to drop them
+     */
+    public CommandHistory(int capacity, Consumer<Record> spill) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.spill = spill;
+    }
+
+    public CommandHistory(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * History configured by the system properties {@code moco.history.capacity},
+     * {@code moco.history.spill}, a file that receives overwritten records, and
+     * {@code moco.history.spill.pending}, how many records may wait to be written to it.
+     * @return configured history
+     */
+    public static CommandHistory fromSystemProperties() {
+        int capacity = Integer.getInteger("moco.history.capacity", 4096);
+        String spillFile = System.getProperty("moco.history.spill");
+        int pending = Integer.getInteger("moco.history.spill.pending", FileSpill.DEFAULT_PENDING);
+        return new CommandHistory(capacity, spillFile == null ? null : new FileSpill(new File(spillFile), pending));
+    }
+
+    public Record append(Message message, String outcome) {
+        // Read the clock before claiming the sequence, so a later sequence never gets an earlier stamp
+        long seq;
+        long timestamp;
+        do {
+            seq = sequence.get();
+            timestamp = originMillis + (System.nanoTime() - originNanos) / 1_000_000;
+        } while (!sequence.compareAndSet(seq, seq + 1));
+        Record record = new Record(seq, message.getDeviceId() == null ? message.getDeviceType() : message.getDeviceId(), message.getDeviceAPI(), message.getDeviceAPIArgs(), timestamp, outcome);
+        Record evicted = slots.getAndSet((int) seq & mask, record);
+        if (evicted != null && spill != null) {
+            spill.accept(evicted);
+        }
+        return record;
+    }
+
+    /**
+     * @return number of records currently held in memory
+     */
+    public int size() {
+        return (int) Math.min(sequence.get(), capacity());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of records ever appended
+     */
+    public long totalCount() {
+        return sequence.get();
+    }
+
+    /**
+     * Visit the records held in memory from oldest to newest, without copying them.
+     * Records overwritten while iterating are skipped.
+     * @param action visitor
+     */
+    public void forEach(Consumer<Record> action) {
+        long end = sequence.get();
+        long start = Math.max(0, end - capacity());
+        for (long seq = start; seq < end; seq++) {
+            Record record = slots.get((int) seq & mask);
+            if (record != null && record.sequence == seq) {
+                action.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Visit the records held in memory whose timestamp lies in [fromMillis, toMillis], from
+     * oldest to newest. The first one is found by binary search and the walk stops at the
+     * first newer record, so only the range is read. Records already handed to the spill
+     * sink are not visited; a spill file has to be searched on its own.
+     * @param fromMillis inclusive lower bound
+     * @param toMillis inclusive upper bound
+     * @param action visitor
+     */
+    public void forEachBetween(long fromMillis, long toMillis, Consumer<Record> action) {
+        long end = sequence.get();
+        for (long seq = firstAtOrAfter(Math.max(0, end - capacity()), end, fromMillis); seq < end; seq++) {
+            Record record = slots.get((int) seq & mask);
+            if (record == null || record.sequence != seq) {
+                continue;
+            }
+            if (record.timestamp > toMillis) {
+                break;
+            }
+            if (record.timestamp >= fromMillis) {
+                action.accept(record);
+            }
+        }
+    }
+
+    // First sequence in [start, end) stamped at or after fromMillis. An overwritten slot counts
+    // as older and a slot not written yet as newer, as they would be.
+    private long firstAtOrAfter(long start, long end, long fromMillis) {
+        long low = start;
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            Record record = slots.get((int) mid & mask);
+            boolean before = record != null && (record.sequence > mid || record.sequence == mid && record.timestamp < fromMillis);
+            if (before) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spill instanceof Closeable) {
+            ((Closeable) spill).close();
+        }
+    }
+
+    public static class Record {
+        private final long sequence;
+        private final String device;
+        private final String api;
+        private final String[] args;
+        private final long timestamp;
+        private final String outcome;
+
+        Record(long sequence, String device, String api, String[] args, long timestamp, String outcome) {
+            this.sequence = sequence;
+            this.device = device;
+            this.api = api;
+            this.args = args;
+            this.timestamp = timestamp;
+            this.outcome = outcome;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getApi() {
+            return api;
+        }
+
+        public String[] getArgs() {
+            return args;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "'sequence':" + sequence +
+                    ", 'device':'" + device + '\'' +
+                    ", 'api':'" + api + '\'' +
+                    ", 'args':'" + Arrays.toString(args) + '\'' +
+                    ", 'timestamp':" + timestamp +
+                    ", 'outcome':'" + outcome + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * Appends overwritten records to a file, one per line. Writing happens on a background
+     * thread so appends to the history stay lock-free. Records that arrive while too many are
+     * waiting to be written, or after the spill is closed, are dropped and counted.
+     */
+    public static class FileSpill implements Consumer<Record>, Closeable {
+        public static final int DEFAULT_PENDING = 65536;
+
+        private final ConcurrentLinkedQueue<Record> pending = new ConcurrentLinkedQueue<>();
+        private final int maxPending;
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final LongAdder dropped = new LongAdder();
+        private final Writer writer;
+        private final Thread flusher;
+        private volatile boolean closed;
+
+        public FileSpill(File file) {
+            this(file, DEFAULT_PENDING);
+        }
+
+        /**
+         * @param file file the records are appended to
+         * @param maxPending records that may wait to be written before new ones are dropped
+         */
+        public FileSpill(File file, int maxPending) {
+            this.maxPending = maxPending;
+            try {
+                this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            } catch (FileNotFoundException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.flusher = new Thread(this::run, "history-spill");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+
+        @Override
+        public void accept(Record record) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            if (pendingCount.incrementAndGet() > maxPending) {
+                pendingCount.decrementAndGet();
+                dropped.increment();
+                return;
+            }
+            pending.offer(record);
+        }
+
+        /**
+         * @return records that were not written because the spill was behind or closed
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        private void run() {
+            while (!closed) {
+                drain();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        private void drain() {
+            Record record;
+            try {
+                boolean wrote = false;
+                while ((record = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    writer.write(record.toString());
+                    writer.write('\n');
+                    wrote = true;
+                }
+                if (wrote) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to spill command history", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer.close();
+            if (dropped.sum() > 0) {
+                LOGGER.warn("Dropped " + dropped.sum() + " command history records instead of spilling them");
+            }
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package IoTSystem;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped write-ahead journal of accepted and retried commands.
+ * A background thread forces the mapped file to disk in batches (group commit), so one
+ * fsync covers every record appended since the previous one. Commands that were accepted
+ * but never completed are handed back by {@link #inFlight()} after a restart.
+ *
+ * Record layout: int length, int crc32, then length bytes of body. A zero length or a
+ * checksum mismatch marks the end of the journal.
+ */
+public class CommandJournal implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final byte ACCEPTED = 1;
+    private static final byte RETRIED = 2;
+    private static final byte COMPLETED = 3;
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final int capacity;
+    private final long commitIntervalMillis;
+    private final boolean awaitCommit;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Commands appended but not completed, by journal id. Kept to compact the journal.
+     */
+    private final ConcurrentSkipListMap<Long, Entry> inFlight = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    // Guarded by this; positions are offsets into the file of the current generation, which
+    // every compaction starts anew
+    private long written;
+    private long committed;
+    private long generation;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * Open a journal, replaying whatever an earlier process left in it.
+     * @param file journal file
+     * @param capacity size of the mapped file in bytes
+     * @param commitIntervalMillis how often pending records are forced to disk
+     * @param awaitCommit whether appends wait until their record is on disk
+     * @throws IOException if the file cannot be opened
+     */
+    public CommandJournal(File file, int capacity, long commitIntervalMillis, boolean awaitCommit) throws IOException {
+        this.path = file.toPath();
+        this.capacity = capacity;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.awaitCommit = awaitCommit;
+        map();
+        replay();
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Journal configured by the system properties {@code moco.journal} (file),
+     * {@code moco.journal.size}, {@code moco.journal.commitMillis} and {@code moco.journal.sync}.
+     * @return configured journal, or null if journaling is off
+     */
+    public static CommandJournal fromSystemProperties() {
+        String file = System.getProperty("moco.journal");
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new CommandJournal(new File(file),
+                    Integer.getInteger("moco.journal.size", 64 << 20),
+                    Long.getLong("moco.journal.commitMillis", 2),
+                    Boolean.parseBoolean(System.getProperty("moco.journal.sync", "true")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open command journal " + file, e);
+        }
+    }
+
+    // Record a command accepted for execution
+    public void accepted(Message message) {
+        accepted(message, true);
+    }
+
+    /**
+     * Record a command accepted for execution.
+     * @param message command
+     * @param await whether to wait for the group commit; if not, {@link #awaitDurable()}
+     *              must follow before the command counts as accepted
+     */
+    public void accepted(Message message, boolean await) {
+        append(ACCEPTED, message, 0, await && awaitCommit);
+    }
+
+    // Record a command scheduled for a later retry, e.g. a repair action
+    public void retried(Message message, long dueMillis) {
+        append(RETRIED, message, dueMillis, awaitCommit);
+    }
+
+    // Wait until every record written so far is on disk, unless appends do not wait for commits
+    public synchronized void awaitDurable() {
+        if (awaitCommit) {
+            awaitCommit(generation, written);
+        }
+    }
+
+    /**
+     * Record that a command left the system, whether it executed or not.
+     * @param id journal id the command had when it was taken for execution
+     */
+    public void completed(long id) {
+        if (id < 0 || inFlight.remove(id) == null) {
+            return;
+        }
+        ByteBuffer body = ByteBuffer.allocate(9);
+        body.put(COMPLETED).putLong(id);
+        // Completions need not be durable: losing one only replays an executed command
+        write(body.array(), false, id, null);
+    }
+
+    /**
+     * @return commands that were accepted or retried but not completed, oldest first
+     */
+    public List<Entry> inFlight() {
+        return new ArrayList<>(inFlight.values());
+    }
+
+    // Every append gets a new id, so a retry outlives the completion of the original attempt
+    private void append(byte type, Message message, long dueMillis, boolean durable) {
+        long id = nextId.getAndIncrement();
+        message.setJournalId(id);
+        write(encode(type, id, dueMillis, message), durable, id, new Entry(message, dueMillis));
+    }
+
+    // An entry joins the in-flight commands only once its record is written, so a compaction
+    // the record makes room for does not copy it as well
+    private void write(byte[] body, boolean durable, long id, Entry entry) {
+        long position;
+        long writtenIn;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Command journal is closed");
+            }
+            if (buffer.remaining() < HEADER_SIZE + body.length + HEADER_SIZE) {
+                compact();
+                if (buffer.remaining() < HEADER_SIZE + body.length + HEADER_SIZE) {
+                    throw new IllegalStateException("Command journal is full: " + path);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            buffer.putInt(body.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(body);
+            if (entry != null) {
+                inFlight.put(id, entry);
+            }
+            written = buffer.position();
+            position = written;
+            writtenIn = generation;
+        }
+        if (durable) {
+            awaitCommit(writtenIn, position);
+        }
+    }
+
+    // A compaction forces every in-flight record, so it commits whatever was written before it
+    private synchronized void awaitCommit(long writtenIn, long position) {
+        while (generation == writtenIn && committed < position && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(commitIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    // One force covers every record written since the last one
+    private void flush() {
+        MappedByteBuffer target;
+        long position;
+        synchronized (this) {
+            if (committed == written) {
+                return;
+            }
+            target = buffer;
+            position = written;
+        }
+        target.force();
+        synchronized (this) {
+            if (target == buffer) {
+                committed = Math.max(committed, position);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the in-flight commands. Called with the lock held when
+     * the mapped file is full.
+     */
+    private void compact() {
+        try {
+            Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer compacted = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                for (Map.Entry<Long, Entry> entry : inFlight.entrySet()) {
+                    Entry value = entry.getValue();
+                    byte[] body = encode(value.dueMillis > 0 ? RETRIED : ACCEPTED, entry.getKey(), value.dueMillis, value.message);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    compacted.putInt(body.length).putInt((int) crc.getValue()).put(body);
+                }
+                compacted.force();
+            }
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            map();
+            skipToEnd();
+            committed = written = buffer.position();
+            generation++;
+            notifyAll();
+            LOGGER.info("Compacted command journal to " + inFlight.size() + " in-flight commands");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot compact command journal " + path, e);
+        }
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+    }
+
+    // Position the buffer after the last valid record
+    private void skipToEnd() {
+        buffer.position(0);
+        while (readRecord() != null) {
+            // skip
+        }
+    }
+
+    private void replay() {
+        buffer.position(0);
+        long maxId = -1;
+        byte[] body;
+        while ((body = readRecord()) != null) {
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long id = record.getLong();
+            maxId = Math.max(maxId, id);
+            if (type == COMPLETED) {
+                inFlight.remove(id);
+            } else {
+                long dueMillis = record.getLong();
+                Message message = decode(record);
+                message.setJournalId(id);
+                inFlight.put(id, new Entry(message, dueMillis));
+            }
+        }
+        nextId.set(maxId + 1);
+        written = committed = buffer.position();
+        if (!inFlight.isEmpty()) {
+            LOGGER.info("Command journal has " + inFlight.size() + " commands to replay");
+        }
+    }
+
+    /**
+     * @return body of the record at the buffer position, or null at the end of the journal
+     */
+    private byte[] readRecord() {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            // Torn write from a crash: everything from here on is discarded
+            buffer.position(start);
+            return null;
+        }
+        return body;
+    }
+
+    private static byte[] encode(byte type, long id, long dueMillis, Message message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeLong(id);
+            out.writeLong(dueMillis);
+            writeString(out, message.getDeviceType());
+            // An empty id stands for the default device of the type
+            writeString(out, message.getDeviceId() == null ? "" : message.getDeviceId());
+            writeString(out, message.getDeviceAPI());
+            String[] args = message.getDeviceAPIArgs();
+            out.writeInt(args == null ? -1 : args.length);
+            if (args != null) {
+                for (String arg : args) {
+                    writeString(out, arg);
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Message decode(ByteBuffer record) {
+        String deviceType = readString(record);
+        String deviceId = readString(record);
+        String api = readString(record);
+        int argc = record.getInt();
+        String[] args = argc < 0 ? null : new String[argc];
+        for (int i = 0; i < argc; i++) {
+            args[i] = readString(record);
+        }
+        return new Message(deviceType, deviceId.isEmpty() ? null : deviceId, api, args);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        flusher.interrupt();
+        buffer.force();
+        channel.close();
+    }
+
+    public static class Entry {
+        private final Message message;
+        private final long dueMillis;
+
+        Entry(Message message, long dueMillis) {
+            this.message = message;
+            this.dueMillis = dueMillis;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return when a retried command is due, or 0 for a command accepted for immediate execution
+         */
+        public long getDueMillis() {
+            return dueMillis;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("moco", ".journal");
+        file.deleteOnExit();
+
+        CommandJournal journal = new CommandJournal(file, 4096, 1, true);
+        Message done = new Message("CoffeeMachine", "turnOn", new String[]{});
+        Message pending = new Message("CoffeeMachine", "CM002", "brewCoffee", new String[]{"1"});
+        Message retry = new Message("Yeelight", "setRGB", new String[]{"120", "130", "111"});
+        journal.accepted(done);
+        journal.accepted(pending);
+        journal.retried(retry, System.currentTimeMillis() + 100);
+        journal.completed(done.getJournalId());
+        Message deferred = new Message("Yeelight", "turnOn", new String[]{});
+        journal.accepted(deferred, false);
+        journal.awaitDurable();
+        journal.completed(deferred.getJournalId());
+        journal.close();
+
+        // A new process sees only the commands that never completed
+        CommandJournal reopened = new CommandJournal(file, 4096, 1, true);
+        List<Entry> entries = reopened.inFlight();
+        assert entries.size() == 2;
+        assert entries.get(0).getMessage().getDeviceAPI().equals("brewCoffee");
+        assert entries.get(0).getMessage().getDeviceAPIArgs()[0].equals("1");
+        assert entries.get(0).getMessage().getDeviceId().equals("CM002");
+        assert entries.get(1).getMessage().getDeviceId() == null;
+        assert entries.get(1).getDueMillis() > 0;
+
+        // Filling the file compacts it down to the in-flight commands
+        for (int i = 0; i < 1000; i++) {
+            Message message = new Message("Gateway", "turnLightOn", new String[]{});
+            reopened.accepted(message);
+            reopened.completed(message.getJournalId());
+        }
+        assert reopened.inFlight().size() == 2;
+        reopened.close();
+
+        // A compaction commits the records written before it, so their writers stop waiting
+        file.delete();
+        CommandJournal slow = new CommandJournal(file, 4096, TimeUnit.MINUTES.toMillis(1), true);
+        Thread waiter = new Thread(() -> slow.accepted(new Message("Yeelight", "turnOn", new String[]{})));
+        waiter.start();
+        for (int i = 0; i < 1000; i++) {
+            Message message = new Message("Gateway", "turnLightOn", new String[]{});
+            slow.accepted(message, false);
+            slow.completed(message.getJournalId());
+        }
+        try {
+            waiter.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        assert !waiter.isAlive();
+        assert slow.inFlight().size() == 1;
+        slow.close();
+    }
+}
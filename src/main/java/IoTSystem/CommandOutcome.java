@@ -0,0 +1,111 @@
+package IoTSystem;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What happened to a submitted command: whether the pre-check let it through, how its
+ * execution ended, and what the post-check found and did about it.
+ */
+public class CommandOutcome {
+    public enum PreCheck {
+        ACCEPTED,
+        REJECTED,
+        // The proxy was off
+        NOT_CHECKED
+    }
+
+    public enum Execution {
+        EXECUTED,
+        // The controller threw, or has no such API
+        FAILED,
+        // The execution backend was saturated
+        REJECTED,
+        // Rejected by the pre-check, or addressed to an unknown device
+        NOT_EXECUTED
+    }
+
+    public enum PostCheck {
+        NOT_CHECKED,
+        CONFORMING,
+        // Only the twin deviated from the model, and took the expected state
+        TWIN_CORRECTED,
+        // The device did not move; the command was scheduled again
+        RETRIED,
+        // The device deviated; the actions of a repair plan were scheduled
+        REPAIRED
+    }
+
+    private final Message message;
+    private final PreCheck preCheck;
+    private final Execution execution;
+    private final String detail;
+    private final PostCheck postCheck;
+    private final List<String> repairActions;
+
+    public CommandOutcome(Message message, PreCheck preCheck, Execution execution, String detail, PostCheck postCheck,
+                          List<String> repairActions) {
+        this.message = message;
+        this.preCheck = preCheck;
+        this.execution = execution;
+        this.detail = detail;
+        this.postCheck = postCheck;
+        this.repairActions = repairActions == null ? Collections.emptyList() : Collections.unmodifiableList(repairActions);
+    }
+
+    /**
+     * @param message command that never reached the device
+     * @param preCheck verdict of the pre-check
+     * @param detail why the command was not executed
+     * @return outcome without execution or post-check
+     */
+    public static CommandOutcome notExecuted(Message message, PreCheck preCheck, String detail) {
+        return new CommandOutcome(message, preCheck, Execution.NOT_EXECUTED, detail, PostCheck.NOT_CHECKED, null);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public PreCheck getPreCheck() {
+        return preCheck;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return outcome as written to the command history, e.g. "executed" or the failure
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    public PostCheck getPostCheck() {
+        return postCheck;
+    }
+
+    /**
+     * @return actions scheduled to repair a deviation, possibly starting with START_FROM_ORIGIN
+     */
+    public List<String> getRepairActions() {
+        return repairActions;
+    }
+
+    public boolean isExecuted() {
+        return execution == Execution.EXECUTED;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandOutcome{" +
+                "'message':" + message +
+                ", 'preCheck':'" + preCheck + '\'' +
+                ", 'execution':'" + execution + '\'' +
+                ", 'detail':'" + detail + '\'' +
+                ", 'postCheck':'" + postCheck + '\'' +
+                ", 'repairActions':" + repairActions +
+                '}';
+    }
+}
@@ -16,6 +16,11 @@ public class DelayedMessage implements Delayed {
         return message;
     }
 
+    // Epoch millis at which the message is due
+    public long getStartTime() {
+        return startTime;
+    }
+
     @Override
     public long getDelay(TimeUnit unit) {
         long delay = startTime - System.currentTimeMillis();
@@ -104,7 +104,7 @@ public class CMController {
 
     public void brewCoffee(int type) {
         String result = coffeeMachine.brewCoffee(type);
-        cmTwin.updateAllFromString(coffeeMachine.toString());
+        cmTwin.updateFrom(coffeeMachine);
     }
 
     public void printInternalState(){
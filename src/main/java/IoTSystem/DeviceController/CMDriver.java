@@ -0,0 +1,76 @@
+package IoTSystem.DeviceController;
+
+import IoTSystem.DelayedMessage;
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceTwin.CMTwin;
+import IoTSystem.Message;
+import MOCO.RepairPlans;
+import VirtualDevice.CoffeeMachine;
+
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+public class CMDriver extends DeviceDriver<CMController> {
+    public CMDriver() {
+        super("CoffeeMachine", CMController.class,
+                "turnOn", "turnOff", "addCoffeeBean", "addWater", "addMilk", "placeCup", "fetchCoffee", "brewCoffee");
+    }
+
+    @Override
+    public String deviceId(CMController controller) {
+        return controller.getDeviceId();
+    }
+
+    @Override
+    public String twinState(CMController controller) {
+        return controller.getCmTwin().toSystemDeviceString();
+    }
+
+    @Override
+    public void setTwinTargetState(CMController controller, String state) {
+        controller.getCmTwin().setTargetState(state);
+    }
+
+    @Override
+    public String deviceState(CMController controller) {
+        return controller.getCoffeeMachine().toSystemStateString();
+    }
+
+    @Override
+    public long stateKeyOf(String state) {
+        return CMTwin.systemStateKeyOf(state);
+    }
+
+    @Override
+    public long twinStateKey(CMController controller) {
+        return controller.getCmTwin().systemStateKey();
+    }
+
+    @Override
+    public long deviceStateKey(CMController controller) {
+        return controller.getCoffeeMachine().systemStateKey();
+    }
+
+    @Override
+    public void compareTwin(CMController controller) {
+        controller.printInternalState();
+    }
+
+    @Override
+    public void repair(CMController controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue) {
+        for (String action : actions) {
+            switch (action) {
+                case RepairPlans.START_FROM_ORIGIN:
+                    controller.setCoffeeMachine(new CoffeeMachine());
+                    controller.setCmTwin(new CMTwin());
+                    break;
+                case "brewCoffee":
+                    delayedQueue.offer(new DelayedMessage(new Message("CoffeeMachine", controller.getDeviceId(), "brewCoffee", new String[]{"1"}), 100));
+                    break;
+                default:
+                    delayedQueue.offer(new DelayedMessage(new Message("CoffeeMachine", controller.getDeviceId(), action, new String[]{}), 100));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package IoTSystem.DeviceController;
+
+import IoTSystem.DelayedMessage;
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceTwin.GatewayTwin;
+import IoTSystem.Message;
+import MOCO.RepairPlans;
+import VirtualDevice.Gateway;
+
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+public class GatewayDriver extends DeviceDriver<GatewayController> {
+    public GatewayDriver() {
+        super("Gateway", GatewayController.class,
+                "turnLightOn", "turnLightOff", "setLightBrightness", "turnAlarmOn", "turnAlarmOff", "addDevice", "removeDevice");
+    }
+
+    @Override
+    public String deviceId(GatewayController controller) {
+        return controller.getDeviceId();
+    }
+
+    @Override
+    public String twinState(GatewayController controller) {
+        return controller.getGatewayTwin().toSystemDeviceString();
+    }
+
+    @Override
+    public void setTwinTargetState(GatewayController controller, String state) {
+        controller.getGatewayTwin().setTargetState(state);
+    }
+
+    @Override
+    public String deviceState(GatewayController controller) {
+        return controller.getGateway().toSystemString();
+    }
+
+    @Override
+    public long stateKeyOf(String state) {
+        return GatewayTwin.systemStateKeyOf(state);
+    }
+
+    @Override
+    public long twinStateKey(GatewayController controller) {
+        return controller.getGatewayTwin().systemStateKey();
+    }
+
+    @Override
+    public long deviceStateKey(GatewayController controller) {
+        return controller.getGateway().systemStateKey();
+    }
+
+    @Override
+    public void compareTwin(GatewayController controller) {
+        controller.printInternalState();
+    }
+
+    @Override
+    public void repair(GatewayController controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue) {
+        for (String action : actions) {
+            switch (action) {
+                case RepairPlans.START_FROM_ORIGIN:
+                    controller.setGateway(new Gateway());
+                    controller.setGatewayTwin(new GatewayTwin());
+                    break;
+                case "setLightBrightness":
+                    delayedQueue.offer(new DelayedMessage(new Message("Gateway", controller.getDeviceId(), "setLightBrightness", new String[]{"50"}), 100));
+                    break;
+                case "addDevice":
+                    delayedQueue.offer(new DelayedMessage(new Message("Gateway", controller.getDeviceId(), "addDevice", new String[]{"device1"}), 100));
+                    break;
+                case "removeDevice":
+                    delayedQueue.offer(new DelayedMessage(new Message("Gateway", controller.getDeviceId(), "removeDevice", new String[]{"device1"}), 100));
+                    break;
+                default:
+                    delayedQueue.offer(new DelayedMessage(new Message("Gateway", controller.getDeviceId(), action, new String[]{}), 100));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package IoTSystem.DeviceController;
+
+import IoTSystem.DelayedMessage;
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceTwin.LightTwin;
+import IoTSystem.Message;
+import MOCO.RepairPlans;
+import VirtualDevice.Yeelight;
+
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+public class LightDriver extends DeviceDriver<LightController> {
+    public LightDriver() {
+        super("Yeelight", LightController.class, "turnOn", "turnOff", "setBrightness", "setRGB");
+    }
+
+    @Override
+    public String deviceId(LightController controller) {
+        return controller.getDeviceId();
+    }
+
+    @Override
+    public String twinState(LightController controller) {
+        return controller.getLightTwin().toSystemDeviceString();
+    }
+
+    @Override
+    public void setTwinTargetState(LightController controller, String state) {
+        controller.getLightTwin().setTargetState(state);
+    }
+
+    @Override
+    public String deviceState(LightController controller) {
+        return controller.getYeelight().toSystemString();
+    }
+
+    @Override
+    public long stateKeyOf(String state) {
+        return LightTwin.systemStateKeyOf(state);
+    }
+
+    @Override
+    public long twinStateKey(LightController controller) {
+        return controller.getLightTwin().systemStateKey();
+    }
+
+    @Override
+    public long deviceStateKey(LightController controller) {
+        return controller.getYeelight().systemStateKey();
+    }
+
+    @Override
+    public void compareTwin(LightController controller) {
+        controller.printInternalState();
+    }
+
+    @Override
+    public void repair(LightController controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue) {
+        for (String action : actions) {
+            switch (action) {
+                case RepairPlans.START_FROM_ORIGIN:
+                    controller.setYeelight(new Yeelight(10, false, 255, 255, 255));
+                    controller.setLightTwin(new LightTwin(10, false, 255, 255, 255));
+                    break;
+                case "setBrightness":
+                    delayedQueue.offer(new DelayedMessage(new Message("Yeelight", controller.getDeviceId(), "setBrightness", new String[]{"50"}), 100));
+                    break;
+                case "setRGB":
+                    delayedQueue.offer(new DelayedMessage(new Message("Yeelight", controller.getDeviceId(), "setRGB", new String[]{"120", "130", "111"}), 100));
+                    break;
+                default:
+                    delayedQueue.offer(new DelayedMessage(new Message("Yeelight", controller.getDeviceId(), action, new String[]{}), 100));
+                    break;
+            }
+        }
+    }
+}
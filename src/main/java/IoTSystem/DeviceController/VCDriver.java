@@ -0,0 +1,76 @@
+package IoTSystem.DeviceController;
+
+import IoTSystem.DelayedMessage;
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceTwin.VCTwin;
+import IoTSystem.Message;
+import MOCO.RepairPlans;
+import VirtualDevice.VideoCamera;
+
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+public class VCDriver extends DeviceDriver<VCController> {
+    public VCDriver() {
+        super("VideoCamera", VCController.class,
+                "turnOn", "turnOff", "turnOnMotionRecord", "turnOffMotionRecord",
+                "turnOnLight", "turnOffLight", "turnOnFullColor", "turnOffFullColor", "turnOnFlip", "turnOffFlip",
+                "turnOnImproveProgram", "turnOffImproveProgram", "turnOnWdr", "turnOffWdr", "turnOnTrack", "turnOffTrack",
+                "turnOffWatermark", "setMaxClient", "setNightMode", "setMiniLevel");
+    }
+
+    @Override
+    public String deviceId(VCController controller) {
+        return controller.getDeviceId();
+    }
+
+    @Override
+    public String twinState(VCController controller) {
+        return controller.getVcTwin().toSystemDeviceString();
+    }
+
+    @Override
+    public void setTwinTargetState(VCController controller, String state) {
+        controller.getVcTwin().setTargetState(state);
+    }
+
+    @Override
+    public String deviceState(VCController controller) {
+        return controller.getVc().toSystemString();
+    }
+
+    @Override
+    public long stateKeyOf(String state) {
+        return VCTwin.systemStateKeyOf(state);
+    }
+
+    @Override
+    public long twinStateKey(VCController controller) {
+        return controller.getVcTwin().systemStateKey();
+    }
+
+    @Override
+    public long deviceStateKey(VCController controller) {
+        return controller.getVc().systemStateKey();
+    }
+
+    @Override
+    public void compareTwin(VCController controller) {
+        controller.printInternalState();
+    }
+
+    @Override
+    public void repair(VCController controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue) {
+        for (String action : actions) {
+            switch (action) {
+                case RepairPlans.START_FROM_ORIGIN:
+                    controller.setVc(new VideoCamera());
+                    controller.setVcTwin(new VCTwin());
+                    break;
+                default:
+                    delayedQueue.offer(new DelayedMessage(new Message("VideoCamera", controller.getDeviceId(), action, new String[]{}), 100));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package IoTSystem.DeviceController;
+
+import IoTSystem.DelayedMessage;
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceTwin.WMTwin;
+import IoTSystem.Message;
+import MOCO.RepairPlans;
+import VirtualDevice.WashingMachine;
+
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+public class WMDriver extends DeviceDriver<WMController> {
+    public WMDriver() {
+        super("WashingMachine", WMController.class,
+                "turnOn", "turnOff", "openDoor", "closeDoor", "fillWater", "startWashing",
+                "startRinsing", "startSpinning", "stop");
+    }
+
+    @Override
+    public String deviceId(WMController controller) {
+        return controller.getDeviceId();
+    }
+
+    @Override
+    public String twinState(WMController controller) {
+        return controller.getWmTwin().toDeviceString();
+    }
+
+    @Override
+    public void setTwinTargetState(WMController controller, String state) {
+        controller.getWmTwin().setTargetState(state);
+    }
+
+    @Override
+    public String deviceState(WMController controller) {
+        return controller.getWm().toString();
+    }
+
+    @Override
+    public long stateKeyOf(String state) {
+        return WMTwin.systemStateKeyOf(state);
+    }
+
+    @Override
+    public long twinStateKey(WMController controller) {
+        return controller.getWmTwin().systemStateKey();
+    }
+
+    @Override
+    public long deviceStateKey(WMController controller) {
+        return controller.getWm().systemStateKey();
+    }
+
+    @Override
+    public void compareTwin(WMController controller) {
+        controller.printInternalState();
+    }
+
+    @Override
+    public void repair(WMController controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue) {
+        for (String action : actions) {
+            switch (action) {
+                case RepairPlans.START_FROM_ORIGIN:
+                    controller.setWm(new WashingMachine());
+                    controller.setWmTwin(new WMTwin());
+                    break;
+                default:
+                    delayedQueue.offer(new DelayedMessage(new Message("WashingMachine", controller.getDeviceId(), action, new String[]{}), 100));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package IoTSystem;
+
+import MOCO.BehaviorAutomaton;
+import MOCO.ModelRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+
+/**
+ * Everything the pipeline needs to know about one device type: the controller class and
+ * its dispatch table, how to read and set the twin state, how to read the device state,
+ * the behavior model, and how to turn a repair plan into commands. A driver is registered
+ * with {@link DeviceDrivers} once and gets an int type id; each message resolves its driver
+ * once and every later stage works through it. A new device type is a new driver.
+ *
+ * @param <C> controller class
+ */
+public abstract class DeviceDriver<C> {
+    private final String deviceType;
+    private final Class<C> controllerClass;
+    private final DispatchTable dispatchTable;
+    private volatile BehaviorAutomaton model;
+    // Assigned by DeviceDrivers.register
+    volatile int typeId = -1;
+
+    /**
+     * @param deviceType device type
+     * @param controllerClass controller class
+     * @param apis device APIs of the controller that messages may call
+     * @throws IllegalArgumentException if the controller lacks an API or overloads it ambiguously
+     */
+    protected DeviceDriver(String deviceType, Class<C> controllerClass, String... apis) {
+        this.deviceType = deviceType;
+        this.controllerClass = controllerClass;
+        this.dispatchTable = DispatchTable.of(controllerClass, Arrays.asList(apis));
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    /**
+     * @return index of the driver in {@link DeviceDrivers}, -1 before it is registered
+     */
+    public int getTypeId() {
+        return typeId;
+    }
+
+    public Class<C> getControllerClass() {
+        return controllerClass;
+    }
+
+    public DispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+    /**
+     * @return behavior model of the device type from the shared model registry, loaded on first use
+     */
+    public BehaviorAutomaton model() {
+        BehaviorAutomaton automaton = model;
+        if (automaton == null) {
+            automaton = ModelRegistry.shared().automaton(deviceType);
+            model = automaton;
+        }
+        return automaton;
+    }
+
+    public abstract String deviceId(C controller);
+
+    /**
+     * @param controller controller
+     * @return twin state in the form the behavior model is keyed by
+     */
+    public abstract String twinState(C controller);
+
+    /**
+     * @param controller controller
+     * @param state model node the twin should take
+     */
+    public abstract void setTwinTargetState(C controller, String state);
+
+    /**
+     * @param controller controller
+     * @return state of the device itself, in the form the behavior model is keyed by
+     */
+    public abstract String deviceState(C controller);
+
+    /**
+     * @param state node content of the behavior model
+     * @return packed system state key of the node, in the layout of {@link #twinStateKey(Object)}
+     */
+    public abstract long stateKeyOf(String state);
+
+    /**
+     * @param controller controller
+     * @return packed {@link #twinState(Object)}, which the model's states are indexed by
+     */
+    public abstract long twinStateKey(C controller);
+
+    /**
+     * @param controller controller
+     * @return packed {@link #deviceState(Object)}, in the layout of {@link #twinStateKey(Object)}
+     */
+    public abstract long deviceStateKey(C controller);
+
+    /**
+     * Log device and twin state and whether they agree.
+     * @param controller controller
+     */
+    public abstract void compareTwin(C controller);
+
+    /**
+     * Carry out a repair plan: START_FROM_ORIGIN resets device and twin, every other action
+     * is queued as a command to the device of the controller.
+     * @param controller controller of the deviated device
+     * @param actions api names from the repair plans of the model
+     * @param delayedQueue queue of scheduled commands
+     */
+    public abstract void repair(C controller, List<String> actions, DelayQueue<DelayedMessage> delayedQueue);
+
+    @Override
+    public String toString() {
+        return "DeviceDriver{" +
+                "'deviceType':'" + deviceType + '\'' +
+                ", 'typeId':" + typeId +
+                ", 'controllerClass':'" + controllerClass.getSimpleName() + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,117 @@
+package IoTSystem;
+
+import IoTSystem.DeviceController.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registered device drivers, by int type id and by device type. The drivers of the built-in
+ * device types are registered when the class loads. A message looks its driver up by name
+ * once and keeps the type id, so later lookups are an array load.
+ */
+public final class DeviceDrivers {
+    public static final int MAX_TYPES = 256;
+
+    private static final AtomicReferenceArray<DeviceDriver<?>> BY_ID = new AtomicReferenceArray<>(MAX_TYPES);
+    private static final Map<String, DeviceDriver<?>> BY_TYPE = new ConcurrentHashMap<>();
+    private static int count;
+
+    public static final DeviceDriver<CMController> COFFEE_MACHINE = register(new CMDriver());
+    public static final DeviceDriver<GatewayController> GATEWAY = register(new GatewayDriver());
+    public static final DeviceDriver<LightController> YEELIGHT = register(new LightDriver());
+    public static final DeviceDriver<VCController> VIDEO_CAMERA = register(new VCDriver());
+    public static final DeviceDriver<WMController> WASHING_MACHINE = register(new WMDriver());
+
+    private DeviceDrivers() {
+    }
+
+    /**
+     * @param driver driver of a device type that has none yet
+     * @return the driver, with its type id assigned
+     * @throws IllegalArgumentException if the device type already has a driver
+     * @throws IllegalStateException if {@value #MAX_TYPES} types are registered
+     */
+    public static synchronized <C> DeviceDriver<C> register(DeviceDriver<C> driver) {
+        if (BY_TYPE.containsKey(driver.getDeviceType())) {
+            throw new IllegalArgumentException("Driver already registered for " + driver.getDeviceType());
+        }
+        if (count == MAX_TYPES) {
+            throw new IllegalStateException("Too many device types: " + driver.getDeviceType());
+        }
+        driver.typeId = count;
+        BY_ID.set(count++, driver);
+        BY_TYPE.put(driver.getDeviceType(), driver);
+        return driver;
+    }
+
+    /**
+     * Drivers are handed out for controllers of unknown class; a controller passed to one
+     * must be of its controller class.
+     * @param typeId type id
+     * @return driver, or null if no driver has the id
+     */
+    @SuppressWarnings("unchecked")
+    public static DeviceDriver<Object> get(int typeId) {
+        return typeId < 0 || typeId >= MAX_TYPES ? null : (DeviceDriver<Object>) BY_ID.get(typeId);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static DeviceDriver<Object> get(String deviceType) {
+        return (DeviceDriver<Object>) BY_TYPE.get(deviceType);
+    }
+
+    /**
+     * @param message message
+     * @return driver of the message's device type, or null if the type has no driver
+     */
+    public static DeviceDriver<Object> of(Message message) {
+        int typeId = message.getTypeId();
+        if (typeId >= 0) {
+            return get(typeId);
+        }
+        DeviceDriver<Object> driver = get(message.getDeviceType());
+        if (driver != null) {
+            message.setTypeId(driver.getTypeId());
+        }
+        return driver;
+    }
+
+    public static void main(String[] args) {
+        Message message = new Message("Yeelight", "turnOn", new String[]{});
+        assert of(message).getTypeId() == YEELIGHT.getTypeId();
+        assert message.getTypeId() == YEELIGHT.getTypeId();
+        assert get(YEELIGHT.getTypeId()).getDeviceType().equals("Yeelight");
+        assert get("CoffeeMachine").getTypeId() == COFFEE_MACHINE.getTypeId();
+        assert of(new Message("Toaster", "turnOn", new String[]{})) == null;
+        try {
+            register(new LightDriver());
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // One driver per device type
+        }
+        for (DeviceDriver<?> driver : new DeviceDriver<?>[]{COFFEE_MACHINE, GATEWAY, YEELIGHT, VIDEO_CAMERA, WASHING_MACHINE}) {
+            assert driver.getDispatchTable().getControllerClass() == driver.getControllerClass();
+            // Accessors of the controller are not device APIs
+            assert !driver.getDispatchTable().hasApi("setDeviceId") && !driver.getDispatchTable().hasApi("printInternalState");
+        }
+        // Every api of a model is exposed by its driver
+        for (DeviceDriver<?> driver : new DeviceDriver<?>[]{COFFEE_MACHINE, GATEWAY, YEELIGHT, WASHING_MACHINE}) {
+            assert driver.getDispatchTable().missingApis(driver.model().getApis()).isEmpty();
+        }
+        try {
+            DispatchTable.of(StringBuilder.class, Collections.singletonList("append"));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // Overloads of the same arity cannot be told apart by the message
+        }
+        try {
+            DispatchTable.of(LightController.class, Collections.singletonList("blink"));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // A listed api must exist
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package IoTSystem;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mailbox of a single device. Messages are handled one at a time in arrival order, while
+ * lanes of different devices share the same executor and run in parallel. A handler may
+ * finish a message on another thread after it returns; the lane then gives its thread back
+ * and takes the next message once the handler reports that it is done.
+ */
+public class DeviceLane {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    // Messages handled per executor turn before the lane yields its thread to other lanes
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Handles the messages of a lane.
+     */
+    public interface Handler {
+        /**
+         * @param message message to handle
+         * @param done to be run once the message is handled, before or after this returns;
+         *             the lane takes its next message only then
+         */
+        void handle(Message message, Runnable done);
+    }
+
+    private final String deviceKey;
+    private final Executor executor;
+    private final Handler handler;
+    private final Queue<Message> mailbox = new ConcurrentLinkedQueue<>();
+    // Set while a drain runs or a handed off message is not done yet
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public DeviceLane(String deviceKey, Executor executor, Handler handler) {
+        this.deviceKey = deviceKey;
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    public String getDeviceKey() {
+        return deviceKey;
+    }
+
+    // Add a message to the mailbox and make sure a drain is scheduled
+    public void submit(Message message) {
+        mailbox.offer(message);
+        schedule();
+    }
+
+    public int size() {
+        return mailbox.size();
+    }
+
+    /**
+     * @return true if the lane has no message waiting and none being handled
+     */
+    public boolean isIdle() {
+        return !scheduled.get() && mailbox.isEmpty();
+    }
+
+    private void schedule() {
+        // Only one drain may run at a time, which keeps this device single-writer
+        if (scheduled.compareAndSet(false, true)) {
+            resume();
+        }
+    }
+
+    private void resume() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("[" + deviceKey + "] Lane stopped with " + mailbox.size() + " messages left");
+        }
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Message message = mailbox.poll();
+            if (message == null) {
+                break;
+            }
+            if (!handle(message)) {
+                // Still scheduled; the completion resumes the lane
+                return;
+            }
+        }
+        scheduled.set(false);
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    // Returns false if the handler finishes the message later
+    private boolean handle(Message message) {
+        Completion completion = new Completion();
+        try {
+            handler.handle(message, completion);
+        } catch (RuntimeException e) {
+            LOGGER.error("[" + deviceKey + "] Failed to handle " + message, e);
+            completion.run();
+        }
+        return !completion.handOff();
+    }
+
+    // Whichever of the handler and the drain comes second decides who goes on with the lane
+    private class Completion implements Runnable {
+        private static final int PENDING = 0;
+        private static final int DONE = 1;
+        private static final int HANDED_OFF = 2;
+        private static final int RESUMED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(PENDING, DONE) && state.compareAndSet(HANDED_OFF, RESUMED)) {
+                resume();
+            }
+        }
+
+        boolean handOff() {
+            return state.compareAndSet(PENDING, HANDED_OFF);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package IoTSystem;
+
+import IoTSystem.DeviceController.LightController;
+import IoTSystem.DeviceTwin.LightTwin;
+import VirtualDevice.Yeelight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Devices of the fleet by device id. Every device has its own controller, and with it its
+ * own twin, and its own {@link DeviceLane}: commands to one device stay ordered while the
+ * lanes of thousands of devices share the threads of one executor. Behavior models stay per
+ * device type, so all devices of a type check against the same immutable automaton.
+ *
+ * The first device registered for a type is its default device, which receives the messages
+ * that carry no device id.
+ */
+public class DeviceRegistry {
+    private final Executor laneExecutor;
+    private final Handler handler;
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    // Default device by driver type id
+    private final AtomicReferenceArray<Device> defaults = new AtomicReferenceArray<>(DeviceDrivers.MAX_TYPES);
+
+    /**
+     * Handles a message on the lane of the device it is addressed to.
+     * @see DeviceLane.Handler
+     */
+    public interface Handler {
+        void handle(Device device, Message message, Runnable done);
+    }
+
+    /**
+     * @param laneExecutor threads shared by the lanes of all devices
+     * @param handler handles a message on the lane of the device it is addressed to
+     */
+    public DeviceRegistry(Executor laneExecutor, Handler handler) {
+        this.laneExecutor = laneExecutor;
+        this.handler = handler;
+    }
+
+    /**
+     * @param driver registered driver of the device type
+     * @param controller controller of the device; its device id must be unique across all types
+     * @return registered device
+     * @throws IllegalArgumentException if the id is taken or the driver is not registered
+     */
+    @SuppressWarnings("unchecked")
+    public <C> Device register(DeviceDriver<C> driver, C controller) {
+        if (driver.getTypeId() < 0) {
+            throw new IllegalArgumentException("Driver not registered: " + driver);
+        }
+        String deviceId = driver.deviceId(controller);
+        Device device = new Device((DeviceDriver<Object>) driver, deviceId, controller);
+        if (devices.putIfAbsent(deviceId, device) != null) {
+            throw new IllegalArgumentException("Device already registered: " + deviceId);
+        }
+        defaults.compareAndSet(driver.getTypeId(), null, device);
+        return device;
+    }
+
+    public Device get(String deviceId) {
+        return devices.get(deviceId);
+    }
+
+    public Device getDefault(String deviceType) {
+        DeviceDriver<?> driver = DeviceDrivers.get(deviceType);
+        return driver == null ? null : defaults.get(driver.getTypeId());
+    }
+
+    /**
+     * @param message message
+     * @return device the message is addressed to, or null if there is no such device of its type
+     */
+    public Device resolve(Message message) {
+        DeviceDriver<Object> driver = DeviceDrivers.of(message);
+        if (driver == null) {
+            return null;
+        }
+        if (message.getDeviceId() == null) {
+            return defaults.get(driver.getTypeId());
+        }
+        Device device = devices.get(message.getDeviceId());
+        return device != null && device.driver == driver ? device : null;
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Wait until the lane of every device has handled all its messages.
+     * @param timeout how long to wait
+     * @param unit unit of the timeout
+     * @return true if all lanes are idle, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Device device : devices.values()) {
+            while (!device.lane.isIdle()) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+        }
+        return true;
+    }
+
+    public class Device {
+        private final DeviceDriver<Object> driver;
+        private final String deviceId;
+        private final Object controller;
+        private final DeviceLane lane;
+
+        Device(DeviceDriver<Object> driver, String deviceId, Object controller) {
+            this.driver = driver;
+            this.deviceId = deviceId;
+            this.controller = controller;
+            this.lane = new DeviceLane(deviceId, laneExecutor, (message, done) -> handler.handle(this, message, done));
+        }
+
+        public String getDeviceType() {
+            return driver.getDeviceType();
+        }
+
+        /**
+         * @return driver of the device type; takes {@link #getController()} as its controller
+         */
+        public DeviceDriver<Object> getDriver() {
+            return driver;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public Object getController() {
+            return controller;
+        }
+
+        public DeviceLane getLane() {
+            return lane;
+        }
+
+        @Override
+        public String toString() {
+            return "Device{" +
+                    "'deviceType':'" + driver.getDeviceType() + '\'' +
+                    ", 'deviceId':'" + deviceId + '\'' +
+                    '}';
+        }
+    }
+
+    public static void main(String[] args) {
+        AtomicInteger handled = new AtomicInteger();
+        List<Runnable> pending = new ArrayList<>();
+        DeviceRegistry registry = new DeviceRegistry(Runnable::run, (device, message, done) -> {
+            assert device.getDeviceId().equals(message.getDeviceId() == null ? "light0" : message.getDeviceId());
+            handled.incrementAndGet();
+            if (message.getDeviceAPI().equals("turnOff")) {
+                // Finish later, as an executing command does
+                pending.add(done);
+            } else {
+                done.run();
+            }
+        });
+        for (int i = 0; i < 5000; i++) {
+            registry.register(DeviceDrivers.YEELIGHT, new LightController("light" + i, new Yeelight(10, false, 255, 255, 255), new LightTwin(10, false, 255, 255, 255)));
+        }
+        assert registry.size() == 5000;
+        assert registry.getDefault("Yeelight").getDeviceId().equals("light0");
+        assert ((LightController) registry.get("light42").getController()).getDeviceId().equals("light42");
+        assert registry.get("light42").getDriver().getTypeId() == DeviceDrivers.YEELIGHT.getTypeId();
+
+        try {
+            registry.register(DeviceDrivers.YEELIGHT, new LightController("light42", new Yeelight(10, false, 255, 255, 255), new LightTwin(10, false, 255, 255, 255)));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // Ids are unique
+        }
+
+        Message defaultMessage = new Message("Yeelight", "turnOn", new String[]{});
+        Message addressed = new Message("Yeelight", "light4999", "turnOn", new String[]{});
+        assert registry.resolve(defaultMessage).getDeviceId().equals("light0");
+        assert registry.resolve(addressed).getDeviceId().equals("light4999");
+        assert registry.resolve(new Message("Gateway", "light1", "turnLightOn", new String[]{})) == null;
+        assert registry.resolve(new Message("Yeelight", "light5000", "turnOn", new String[]{})) == null;
+
+        registry.resolve(defaultMessage).getLane().submit(defaultMessage);
+        registry.resolve(addressed).getLane().submit(addressed);
+        assert handled.get() == 2;
+
+        // A lane waits for the message it handed off before it takes the next one
+        Device light1 = registry.get("light1");
+        light1.getLane().submit(new Message("Yeelight", "light1", "turnOff", new String[]{}));
+        light1.getLane().submit(new Message("Yeelight", "light1", "turnOn", new String[]{}));
+        assert handled.get() == 3 && light1.getLane().size() == 1;
+        assert !light1.getLane().isIdle();
+        pending.remove(0).run();
+        assert handled.get() == 4 && light1.getLane().isIdle();
+        try {
+            assert registry.awaitIdle(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
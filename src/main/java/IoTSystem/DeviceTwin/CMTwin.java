@@ -1,9 +1,11 @@
 package IoTSystem.DeviceTwin;
 
+import VirtualDevice.CoffeeMachine;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CMTwin {
     private boolean waterReady;
@@ -20,6 +22,13 @@ public class CMTwin {
     private int currentBeanVolume;
     private int currentMilkVolume;
 
+    private static final Map<String, Long> TARGET_KEYS = new ConcurrentHashMap<>();
+    private static final StateStrings DEVICE_STRINGS = new StateStrings(7);
+
+    // Packed state, kept up to date by every setter
+    private long stateKey;
+    private long systemStateKey;
+
     public CMTwin(){
         this.waterReady = false;
         this.beanReady = false;
@@ -31,6 +40,7 @@ public class CMTwin {
         this.currentWaterVolume = 0;
         this.currentBeanVolume = 0;
         this.currentMilkVolume = 0;
+        pack();
     }
 
     public CMTwin(boolean waterReady, boolean beanReady, boolean milkReady, boolean cupReady, boolean thisTimeCoffeeReady, boolean isWorking, boolean isPowerOn, int currentWaterVolume, int currentBeanVolume, int currentMilkVolume) {
@@ -44,6 +54,7 @@ public class CMTwin {
         this.currentWaterVolume = currentWaterVolume;
         this.currentBeanVolume = currentBeanVolume;
         this.currentMilkVolume = currentMilkVolume;
+        pack();
     }
 
     public CMTwin(Object waterReady, String beanReady, String milkReady, String cupReady, String thisTimeCoffeeReady, String isWorking, String isPowerOn, String currentWaterVolume, String currentBeanVolume, String currentMilkVolume) {
@@ -57,6 +68,7 @@ public class CMTwin {
         this.currentWaterVolume = Integer.parseInt(currentWaterVolume);
         this.currentBeanVolume = Integer.parseInt(currentBeanVolume);
         this.currentMilkVolume = Integer.parseInt(currentMilkVolume);
+        pack();
     }
 
     public boolean isWaterReady() {
@@ -65,6 +77,7 @@ public class CMTwin {
 
     public void setWaterReady(boolean waterReady) {
         this.waterReady = waterReady;
+        pack();
     }
 
     public boolean isBeanReady() {
@@ -73,6 +86,7 @@ public class CMTwin {
 
     public void setBeanReady(boolean beanReady) {
         this.beanReady = beanReady;
+        pack();
     }
 
     public boolean isMilkReady() {
@@ -81,6 +95,7 @@ public class CMTwin {
 
     public void setMilkReady(boolean milkReady) {
         this.milkReady = milkReady;
+        pack();
     }
 
     public boolean isCupReady() {
@@ -89,6 +104,7 @@ public class CMTwin {
 
     public void setCupReady(boolean cupReady) {
         this.cupReady = cupReady;
+        pack();
     }
 
     public boolean isThisTimeCoffeeReady() {
@@ -97,6 +113,7 @@ public class CMTwin {
 
     public void setThisTimeCoffeeReady(boolean thisTimeCoffeeReady) {
         this.thisTimeCoffeeReady = thisTimeCoffeeReady;
+        pack();
     }
 
     public boolean isWorking() {
@@ -105,6 +122,7 @@ public class CMTwin {
 
     public void setWorking(boolean working) {
         isWorking = working;
+        pack();
     }
 
     public boolean isPowerOn() {
@@ -113,6 +131,7 @@ public class CMTwin {
 
     public void setPowerOn(boolean powerOn) {
         isPowerOn = powerOn;
+        pack();
     }
 
     public int getCurrentWaterVolume() {
@@ -121,6 +140,7 @@ public class CMTwin {
 
     public void setCurrentWaterVolume(int currentWaterVolume) {
         this.currentWaterVolume = currentWaterVolume;
+        pack();
     }
 
     public int getCurrentBeanVolume() {
@@ -129,6 +149,7 @@ public class CMTwin {
 
     public void setCurrentBeanVolume(int currentBeanVolume) {
         this.currentBeanVolume = currentBeanVolume;
+        pack();
     }
 
     public int getCurrentMilkVolume() {
@@ -137,6 +158,7 @@ public class CMTwin {
 
     public void setCurrentMilkVolume(int currentMilkVolume) {
         this.currentMilkVolume = currentMilkVolume;
+        pack();
     }
 
     public String toString() {
@@ -154,15 +176,61 @@ public class CMTwin {
                 '}';
     }
 
+    /**
+     * Take the state of a model node. Each distinct node is parsed once.
+     * @param input node content, e.g. {@code CoffeeMachine{...}}
+     */
     public void setTargetState(String input) {
-        JSONObject json = JSON.parseObject(input.replace("CoffeeMachine", ""));
-        this.waterReady = Boolean.parseBoolean(json.get("waterReady").toString());
-        this.beanReady = Boolean.parseBoolean(json.get("beanReady").toString());
-        this.milkReady = Boolean.parseBoolean(json.get("milkReady").toString());
-        this.cupReady = Boolean.parseBoolean(json.get("cupReady").toString());
-        this.thisTimeCoffeeReady = Boolean.parseBoolean(json.get("thisTimeCoffeeReady").toString());
-        this.isWorking = Boolean.parseBoolean(json.get("isWorking").toString());
-        this.isPowerOn = Boolean.parseBoolean(json.get("isPowerOn").toString());
+        setTargetState(TARGET_KEYS.computeIfAbsent(input, CMTwin::systemStateKeyOf));
+    }
+
+    /**
+     * Take the state of a model node by its packed system state key. Only the seven flags
+     * are taken from the node; the water, bean and milk volumes are kept.
+     * @param systemStateKey packed system state, as {@link #systemStateKey()}
+     */
+    public void setTargetState(long systemStateKey) {
+        this.waterReady = (systemStateKey & 1L) != 0;
+        this.beanReady = (systemStateKey & 2L) != 0;
+        this.milkReady = (systemStateKey & 4L) != 0;
+        this.cupReady = (systemStateKey & 8L) != 0;
+        this.thisTimeCoffeeReady = (systemStateKey & 16L) != 0;
+        this.isWorking = (systemStateKey & 32L) != 0;
+        this.isPowerOn = (systemStateKey & 64L) != 0;
+        pack();
+    }
+
+    /**
+     * Copy the full state of a device.
+     * @param device device this twin mirrors
+     */
+    public void updateFrom(CoffeeMachine device) {
+        this.waterReady = device.isWaterReady();
+        this.beanReady = device.isBeanReady();
+        this.milkReady = device.isMilkReady();
+        this.cupReady = device.isCupReady();
+        this.thisTimeCoffeeReady = device.isThisTimeCoffeeReady();
+        this.isWorking = device.isWorking();
+        this.isPowerOn = device.isPowerOn();
+        this.currentWaterVolume = device.getCurrentWaterVolume();
+        this.currentBeanVolume = device.getCurrentBeanVolume();
+        this.currentMilkVolume = device.getCurrentMilkVolume();
+        pack();
+    }
+
+    /**
+     * @param state system device string, e.g. the content of a behavior model node
+     * @return packed system state, as {@link #systemStateKey()}
+     */
+    public static long systemStateKeyOf(String state) {
+        JSONObject json = JSON.parseObject(state.replace("CoffeeMachine", ""));
+        return (json.getBooleanValue("waterReady") ? 1L : 0L)
+                | (json.getBooleanValue("beanReady") ? 2L : 0L)
+                | (json.getBooleanValue("milkReady") ? 4L : 0L)
+                | (json.getBooleanValue("cupReady") ? 8L : 0L)
+                | (json.getBooleanValue("thisTimeCoffeeReady") ? 16L : 0L)
+                | (json.getBooleanValue("isWorking") ? 32L : 0L)
+                | (json.getBooleanValue("isPowerOn") ? 64L : 0L);
     }
 
     public static CMTwin fromString(String input) {
@@ -170,18 +238,12 @@ public class CMTwin {
         return new CMTwin(json.get("waterReady"), json.get("beanReady").toString(), json.get("milkReady").toString(), json.get("cupReady").toString(), json.get("thisTimeCoffeeReady").toString(), json.get("isWorking").toString(), json.get("isPowerOn").toString(), json.get("currentWaterVolume").toString(), json.get("currentBeanVolume").toString(), json.get("currentMilkVolume").toString());
     }
 
+    /**
+     * @deprecated parses the whole device string; use {@link #updateFrom(CoffeeMachine)}
+     */
+    @Deprecated
     public void updateAllFromString (String input) {
-        JSONObject json = JSON.parseObject(input.replace("CoffeeMachine", ""));
-        this.waterReady = Boolean.parseBoolean(json.get("waterReady").toString());
-        this.beanReady = Boolean.parseBoolean(json.get("beanReady").toString());
-        this.milkReady = Boolean.parseBoolean(json.get("milkReady").toString());
-        this.cupReady = Boolean.parseBoolean(json.get("cupReady").toString());
-        this.thisTimeCoffeeReady = Boolean.parseBoolean(json.get("thisTimeCoffeeReady").toString());
-        this.isWorking = Boolean.parseBoolean(json.get("isWorking").toString());
-        this.isPowerOn = Boolean.parseBoolean(json.get("isPowerOn").toString());
-        this.currentWaterVolume = Integer.parseInt(json.get("currentWaterVolume").toString());
-        this.currentBeanVolume = Integer.parseInt(json.get("currentBeanVolume").toString());
-        this.currentMilkVolume = Integer.parseInt(json.get("currentMilkVolume").toString());
+        updateFrom(CoffeeMachine.fromString(input));
     }
 
     public String toSystemStateString() {
@@ -196,7 +258,45 @@ public class CMTwin {
                 '}';
     }
 
+    /**
+     * @return state the behavior models are keyed by, formatted once per state
+     */
     public String toSystemDeviceString() {
+        String state = DEVICE_STRINGS.get(systemStateKey);
+        return state != null ? state : DEVICE_STRINGS.put(systemStateKey, formatSystemDeviceString());
+    }
+
+    /**
+     * Packed state in the layout of {@link VirtualDevice.CoffeeMachine#stateKey()}, so twin and
+     * device states compare directly.
+     * @return packed full state
+     */
+    public long stateKey() {
+        return stateKey;
+    }
+
+    /**
+     * @return packed {@link #toSystemDeviceString()}, as {@link VirtualDevice.CoffeeMachine#systemStateKey()}
+     */
+    public long systemStateKey() {
+        return systemStateKey;
+    }
+
+    private void pack() {
+        systemStateKey = (waterReady ? 1L : 0L)
+                | (beanReady ? 2L : 0L)
+                | (milkReady ? 4L : 0L)
+                | (cupReady ? 8L : 0L)
+                | (thisTimeCoffeeReady ? 16L : 0L)
+                | (isWorking ? 32L : 0L)
+                | (isPowerOn ? 64L : 0L);
+        stateKey = systemStateKey
+                | (long) (currentWaterVolume & 0xFFFF) << 7
+                | (long) (currentBeanVolume & 0xFFFF) << 23
+                | (long) (currentMilkVolume & 0xFFFF) << 39;
+    }
+
+    private String formatSystemDeviceString() {
         return "CoffeeMachine{" +
                 "'waterReady':'" + waterReady + '\'' +
                 ", 'beanReady':'" + beanReady + '\'' +
@@ -218,7 +318,7 @@ public class CMTwin {
 
     @Override
     public int hashCode() {
-        return Objects.hash(isWaterReady(), isBeanReady(), isMilkReady(), isCupReady(), isThisTimeCoffeeReady(), isWorking(), isPowerOn(), getCurrentWaterVolume(), getCurrentBeanVolume(), getCurrentMilkVolume());
+        return Long.hashCode(stateKey);
     }
 
 }
@@ -1,9 +1,11 @@
 package IoTSystem.DeviceTwin;
 
+import VirtualDevice.Gateway;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GatewayTwin {
     private boolean lightOn;
@@ -11,11 +13,19 @@ public class GatewayTwin {
     private boolean alarmOn;
     private int deviceList;
 
+    private static final Map<String, Long> TARGET_KEYS = new ConcurrentHashMap<>();
+    private static final StateStrings DEVICE_STRINGS = new StateStrings(11);
+
+    // Packed state, kept up to date by every setter
+    private long stateKey;
+    private long systemStateKey;
+
     public GatewayTwin() {
         lightOn = false;
         lightBrightness = 0;
         alarmOn = false;
         deviceList = 0;
+        pack();
     }
 
     public GatewayTwin(boolean lightOn, int lightBrightness, boolean alarmOn, int deviceList) {
@@ -23,6 +33,7 @@ public class GatewayTwin {
         this.lightBrightness = lightBrightness;
         this.alarmOn = alarmOn;
         this.deviceList = deviceList;
+        pack();
     }
 
     public boolean isLightOn() {
@@ -31,6 +42,7 @@ public class GatewayTwin {
 
     public void setLightOn(boolean lightOn) {
         this.lightOn = lightOn;
+        pack();
     }
 
     public int getLightBrightness() {
@@ -39,6 +51,7 @@ public class GatewayTwin {
 
     public void setLightBrightness(int lightBrightness) {
         this.lightBrightness = lightBrightness;
+        pack();
     }
 
     public boolean isAlarmOn() {
@@ -47,6 +60,7 @@ public class GatewayTwin {
 
     public void setAlarmOn(boolean alarmOn) {
         this.alarmOn = alarmOn;
+        pack();
     }
 
     public int getDeviceList() {
@@ -55,6 +69,7 @@ public class GatewayTwin {
 
     public void setDeviceList(int deviceList) {
         this.deviceList = deviceList;
+        pack();
     }
 
     @Override
@@ -77,13 +92,85 @@ public class GatewayTwin {
                 "}";
     }
 
+    /**
+     * Take the state of a model node. Each distinct node is parsed once.
+     * @param input node content, e.g. {@code Gateway{...}}
+     */
     public void setTargetState(String input) {
-        JSONObject json = JSON.parseObject(input.replace("Gateway", ""));
-        this.lightOn = Boolean.parseBoolean(json.get("lightOn").toString());
-        this.alarmOn = Boolean.parseBoolean(json.get("alarmOn").toString());
+        setTargetState(TARGET_KEYS.computeIfAbsent(input, GatewayTwin::systemStateKeyOf));
+    }
+
+    /**
+     * Take the state of a model node by its packed system state key. Only lightOn and alarmOn
+     * are taken from the node; the light brightness and the device list are kept.
+     * @param systemStateKey packed system state, as {@link #systemStateKey()}
+     */
+    public void setTargetState(long systemStateKey) {
+        this.lightOn = (systemStateKey & 1L) != 0;
+        this.alarmOn = (systemStateKey & 2L) != 0;
+        pack();
+    }
+
+    /**
+     * Copy the full state of a device.
+     * @param device device this twin mirrors
+     */
+    public void updateFrom(Gateway device) {
+        this.lightOn = device.isLightOn();
+        this.lightBrightness = device.getLightBrightness();
+        this.alarmOn = device.isAlarmOn();
+        this.deviceList = device.getDeviceList();
+        pack();
+    }
+
+    /**
+     * @param state system device string, e.g. the content of a behavior model node
+     * @return packed system state, as {@link #systemStateKey()}
+     */
+    public static long systemStateKeyOf(String state) {
+        JSONObject json = JSON.parseObject(state.replace("Gateway", ""));
+        return (json.getBooleanValue("lightOn") ? 1L : 0L)
+                | (json.getBooleanValue("alarmOn") ? 2L : 0L)
+                | (json.getBooleanValue("lightBrightness") ? 4L : 0L)
+                | (long) json.getIntValue("deviceList") << 3;
+    }
+
+    /**
+     * @return state the behavior models are keyed by, formatted once per state
+     */
+    public String toSystemDeviceString() {
+        String state = DEVICE_STRINGS.get(systemStateKey);
+        return state != null ? state : DEVICE_STRINGS.put(systemStateKey, formatSystemDeviceString());
     }
 
-    public String toSystemDeviceString() {
+    /**
+     * Packed state in the layout of {@link VirtualDevice.Gateway#stateKey()}, so twin and
+     * device states compare directly.
+     * @return packed full state
+     */
+    public long stateKey() {
+        return stateKey;
+    }
+
+    /**
+     * @return packed {@link #toSystemDeviceString()}, as {@link VirtualDevice.Gateway#systemStateKey()}
+     */
+    public long systemStateKey() {
+        return systemStateKey;
+    }
+
+    private void pack() {
+        stateKey = (lightOn ? 1L : 0L)
+                | (alarmOn ? 2L : 0L)
+                | (long) (lightBrightness & 0xFF) << 2
+                | (long) (deviceList & 0xFF) << 10;
+        systemStateKey = (lightOn ? 1L : 0L)
+                | (alarmOn ? 2L : 0L)
+                | (lightBrightness > 0 && lightBrightness <= 100 ? 4L : 0L)
+                | (long) deviceList << 3;
+    }
+
+    private String formatSystemDeviceString() {
         boolean brightnessInRange = lightBrightness > 0 && lightBrightness <= 100;
         return "Gateway{" +
                 "'lightOn':" + lightOn +
@@ -108,6 +195,6 @@ public class GatewayTwin {
 
     @Override
     public int hashCode() {
-        return Objects.hash(isLightOn(), getLightBrightness(), isAlarmOn(), getDeviceList());
+        return Long.hashCode(stateKey);
     }
 }
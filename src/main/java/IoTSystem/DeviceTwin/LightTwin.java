@@ -1,10 +1,12 @@
 package IoTSystem.DeviceTwin;
 
+import VirtualDevice.Yeelight;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LightTwin {
     private int brightness;
@@ -12,11 +14,19 @@ public class LightTwin {
     private boolean powerOn;
     private int[] rgb;
 
+    private static final Map<String, Long> TARGET_KEYS = new ConcurrentHashMap<>();
+    private static final StateStrings DEVICE_STRINGS = new StateStrings(3);
+
+    // Packed state, kept up to date by every setter
+    private long stateKey;
+    private long systemStateKey;
+
     public LightTwin() {
         this.rgb = new int[] {-1, -1, -1};
         this.brightness = -1;
         this.colorMode = -1;
         this.powerOn = false;
+        pack();
     }
 
     public LightTwin(int brightness, int colorMode, boolean isOn, int r, int g, int b) {
@@ -24,12 +34,14 @@ public class LightTwin {
         this.colorMode = colorMode;
         this.powerOn = isOn;
         this.rgb = new int[] {r, g, b};
+        pack();
     }
 
     public LightTwin(int brightness, boolean isOn, int r, int g, int b) {
         this.brightness = brightness;
         this.powerOn = isOn;
         this.rgb = new int[] {r, g, b};
+        pack();
     }
 
     public int getBrightness() {
@@ -38,6 +50,7 @@ public class LightTwin {
 
     public void setBrightness(int brightness) {
         this.brightness = brightness;
+        pack();
     }
 
     public int getColorMode() {
@@ -46,6 +59,7 @@ public class LightTwin {
 
     public void setColorMode(int colorMode) {
         this.colorMode = colorMode;
+        pack();
     }
 
     public boolean isPowerOn() {
@@ -54,6 +68,7 @@ public class LightTwin {
 
     public void setPowerOn(boolean powerOn) {
         this.powerOn = powerOn;
+        pack();
     }
 
     public int[] getRgb() {
@@ -62,6 +77,7 @@ public class LightTwin {
 
     public void setRgb(int r, int g, int b) {
         this.rgb = new int[] {r, g, b};
+        pack();
     }
 
     public String toSystemString() {
@@ -75,12 +91,85 @@ public class LightTwin {
                 "}";
     }
 
+    /**
+     * Take the state of a model node. Each distinct node is parsed once.
+     * @param input node content, e.g. {@code Yeelight{...}}
+     */
     public void setTargetState(String input) {
-        JSONObject json = JSON.parseObject(input.replace("Yeelight", ""));
-        this.powerOn = json.getBoolean("powerOn");
+        setTargetState(TARGET_KEYS.computeIfAbsent(input, LightTwin::systemStateKeyOf));
+    }
+
+    /**
+     * Take the state of a model node by its packed system state key. Only powerOn
+     * is taken from the node; brightness and colour mode are kept.
+     * @param systemStateKey packed system state, as {@link #systemStateKey()}
+     */
+    public void setTargetState(long systemStateKey) {
+        this.powerOn = (systemStateKey & 1L) != 0;
+        pack();
+    }
+
+    /**
+     * Copy the full state of a device.
+     * @param device device this twin mirrors
+     */
+    public void updateFrom(Yeelight device) {
+        int[] rgb = device.getRgb();
+        this.brightness = device.getBrightness();
+        this.colorMode = device.getColorMode();
+        this.powerOn = device.isPowerOn();
+        this.rgb = new int[] {rgb[0], rgb[1], rgb[2]};
+        pack();
+    }
+
+    /**
+     * @param state system device string, e.g. the content of a behavior model node
+     * @return packed system state, as {@link #systemStateKey()}
+     */
+    public static long systemStateKeyOf(String state) {
+        JSONObject json = JSON.parseObject(state.replace("Yeelight", ""));
+        return (json.getBooleanValue("powerOn") ? 1L : 0L)
+                | (json.getBooleanValue("brightness") ? 2L : 0L)
+                | (json.getBooleanValue("rgb") ? 4L : 0L);
+    }
+
+    /**
+     * @return state the behavior models are keyed by, formatted once per state
+     */
+    public String toSystemDeviceString() {
+        String state = DEVICE_STRINGS.get(systemStateKey);
+        return state != null ? state : DEVICE_STRINGS.put(systemStateKey, formatSystemDeviceString());
     }
 
-    public String toSystemDeviceString() {
+    /**
+     * Packed state in the layout of {@link VirtualDevice.Yeelight#stateKey()}, so twin and
+     * device states compare directly.
+     * @return packed full state
+     */
+    public long stateKey() {
+        return stateKey;
+    }
+
+    /**
+     * @return packed {@link #toSystemDeviceString()}, as {@link VirtualDevice.Yeelight#systemStateKey()}
+     */
+    public long systemStateKey() {
+        return systemStateKey;
+    }
+
+    private void pack() {
+        stateKey = (powerOn ? 1L : 0L)
+                | (long) ((brightness + 1) & 0xFF) << 1
+                | (long) ((colorMode + 1) & 0xF) << 9
+                | (long) ((rgb[0] + 1) & 0x1FF) << 13
+                | (long) ((rgb[1] + 1) & 0x1FF) << 22
+                | (long) ((rgb[2] + 1) & 0x1FF) << 31;
+        systemStateKey = (powerOn ? 1L : 0L)
+                | (brightness > 0 && brightness <= 100 ? 2L : 0L)
+                | (rgb[0] + rgb[1] + rgb[2] >= 0 ? 4L : 0L);
+    }
+
+    private String formatSystemDeviceString() {
         boolean brightnessInRange = brightness > 0 && brightness <= 100;
         int rbgInt = rgb[0]+rgb[1]+rgb[2];
         boolean rgbInRange = rbgInt >= 0;
@@ -117,8 +206,6 @@ public class LightTwin {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(getBrightness(), getColorMode(), isPowerOn());
-        result = 31 * result + Arrays.hashCode(getRgb());
-        return result;
+        return Long.hashCode(stateKey);
     }
 }
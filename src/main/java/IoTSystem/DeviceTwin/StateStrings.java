@@ -0,0 +1,32 @@
+package IoTSystem.DeviceTwin;
+
+/**
+ * State strings of one twin type, indexed by packed system state key. A twin formats each
+ * of its abstract states once; afterwards reading the state the behavior models are keyed
+ * by is an array load. Strings are immutable, so racing writers can only store equal values.
+ */
+final class StateStrings {
+    private final String[] strings;
+
+    /**
+     * @param bits width of the keys to cache; keys outside it are never cached
+     */
+    StateStrings(int bits) {
+        this.strings = new String[1 << bits];
+    }
+
+    /**
+     * @param key packed system state key
+     * @return cached string, or null if the key has not been formatted yet
+     */
+    String get(long key) {
+        return key >= 0 && key < strings.length ? strings[(int) key] : null;
+    }
+
+    String put(long key, String state) {
+        if (key >= 0 && key < strings.length) {
+            strings[(int) key] = state;
+        }
+        return state;
+    }
+}
@@ -1,9 +1,11 @@
 package IoTSystem.DeviceTwin;
 
+import VirtualDevice.VideoCamera;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VCTwin {
     private boolean powerOn;
@@ -20,6 +22,13 @@ public class VCTwin {
     private int nightMode;
     private int miniLevel;
 
+    private static final Map<String, Long> TARGET_KEYS = new ConcurrentHashMap<>();
+    private static final StateStrings DEVICE_STRINGS = new StateStrings(13);
+
+    // Packed state, kept up to date by every setter
+    private long stateKey;
+    private long systemStateKey;
+
     public VCTwin() {
         // Initialize with default values (all off, defaults, etc.)
         this.powerOn = false;
@@ -35,6 +44,7 @@ public class VCTwin {
         this.maxClient = 0;
         this.nightMode = 0;
         this.miniLevel = 1;
+        pack();
     }
 
     public VCTwin(boolean powerOn, boolean motionRecord, boolean light, boolean fullColor, boolean flip, boolean improveProgram, boolean wdr, boolean track, int sdcardStatus, boolean watermark, int maxClient, int nightMode, int miniLevel) {
@@ -51,6 +61,7 @@ public class VCTwin {
         this.maxClient = maxClient;
         this.nightMode = nightMode;
         this.miniLevel = miniLevel;
+        pack();
     }
 
     public boolean isPowerOn() {
@@ -59,6 +70,7 @@ public class VCTwin {
 
     public void setPowerOn(boolean powerOn) {
         this.powerOn = powerOn;
+        pack();
     }
 
     public boolean isMotionRecord() {
@@ -67,6 +79,7 @@ public class VCTwin {
 
     public void setMotionRecord(boolean motionRecord) {
         this.motionRecord = motionRecord;
+        pack();
     }
 
     public boolean isLight() {
@@ -75,6 +88,7 @@ public class VCTwin {
 
     public void setLight(boolean light) {
         this.light = light;
+        pack();
     }
 
     public boolean isFullColor() {
@@ -83,6 +97,7 @@ public class VCTwin {
 
     public void setFullColor(boolean fullColor) {
         this.fullColor = fullColor;
+        pack();
     }
 
     public boolean isFlip() {
@@ -91,6 +106,7 @@ public class VCTwin {
 
     public void setFlip(boolean flip) {
         this.flip = flip;
+        pack();
     }
 
     public boolean isImproveProgram() {
@@ -99,6 +115,7 @@ public class VCTwin {
 
     public void setImproveProgram(boolean improveProgram) {
         this.improveProgram = improveProgram;
+        pack();
     }
 
     public boolean isWdr() {
@@ -107,6 +124,7 @@ public class VCTwin {
 
     public void setWdr(boolean wdr) {
         this.wdr = wdr;
+        pack();
     }
 
     public boolean isTrack() {
@@ -115,6 +133,7 @@ public class VCTwin {
 
     public void setTrack(boolean track) {
         this.track = track;
+        pack();
     }
 
     public int getSdcardStatus() {
@@ -123,6 +142,7 @@ public class VCTwin {
 
     public void setSdcardStatus(int sdcardStatus) {
         this.sdcardStatus = sdcardStatus;
+        pack();
     }
 
     public boolean isWatermark() {
@@ -131,6 +151,7 @@ public class VCTwin {
 
     public void setWatermark(boolean watermark) {
         this.watermark = watermark;
+        pack();
     }
 
     public int getMaxClient() {
@@ -139,6 +160,7 @@ public class VCTwin {
 
     public void setMaxClient(int maxClient) {
         this.maxClient = maxClient;
+        pack();
     }
 
     public int getNightMode() {
@@ -147,6 +169,7 @@ public class VCTwin {
 
     public void setNightMode(int nightMode) {
         this.nightMode = nightMode;
+        pack();
     }
 
     public int getMiniLevel() {
@@ -155,6 +178,7 @@ public class VCTwin {
 
     public void setMiniLevel(int miniLevel) {
         this.miniLevel = miniLevel;
+        pack();
     }
 
     public String toSystemString() {
@@ -179,20 +203,121 @@ public class VCTwin {
                 '}';
     }
 
+    /**
+     * Take the state of a model node. Each distinct node is parsed once.
+     * @param input node content, e.g. {@code VideoCamera{...}}
+     */
     public void setTargetState(String input) {
-        JSONObject json = JSON.parseObject(input.replace("VideoCamera", ""));
-        this.powerOn = json.getBoolean("powerOn");
-        this.motionRecord = json.getBoolean("motionRecord");
-        this.light = json.getBoolean("light");
-        this.fullColor = json.getBoolean("fullColor");
-        this.flip = json.getBoolean("flip");
-        this.improveProgram = json.getBoolean("improveProgram");
-        this.wdr = json.getBoolean("wdr");
-        this.track = json.getBoolean("track");
-        this.watermark = json.getBoolean("watermark");
-    }
-
+        setTargetState(TARGET_KEYS.computeIfAbsent(input, VCTwin::systemStateKeyOf));
+    }
+
+    /**
+     * Take the state of a model node by its packed system state key. Only the nine flags
+     * are taken from the node; the SD card status, client limit, night mode and mini level are kept.
+     * @param systemStateKey packed system state, as {@link #systemStateKey()}
+     */
+    public void setTargetState(long systemStateKey) {
+        this.powerOn = (systemStateKey & 1L) != 0;
+        this.motionRecord = (systemStateKey & 2L) != 0;
+        this.light = (systemStateKey & 4L) != 0;
+        this.fullColor = (systemStateKey & 8L) != 0;
+        this.flip = (systemStateKey & 16L) != 0;
+        this.improveProgram = (systemStateKey & 32L) != 0;
+        this.wdr = (systemStateKey & 64L) != 0;
+        this.track = (systemStateKey & 128L) != 0;
+        this.watermark = (systemStateKey & 256L) != 0;
+        pack();
+    }
+
+    /**
+     * Copy the full state of a device.
+     * @param device device this twin mirrors
+     */
+    public void updateFrom(VideoCamera device) {
+        this.powerOn = device.isPowerOn();
+        this.motionRecord = device.isMotionRecord();
+        this.light = device.isLight();
+        this.fullColor = device.isFullColor();
+        this.flip = device.isFlip();
+        this.improveProgram = device.isImproveProgram();
+        this.wdr = device.isWdr();
+        this.track = device.isTrack();
+        this.sdcardStatus = device.getSdcardStatus();
+        this.watermark = device.isWatermark();
+        this.maxClient = device.getMaxClient();
+        this.nightMode = device.getNightMode();
+        this.miniLevel = device.getMiniLevel();
+        pack();
+    }
+
+    /**
+     * @param state system device string, e.g. the content of a behavior model node
+     * @return packed system state, as {@link #systemStateKey()}
+     */
+    public static long systemStateKeyOf(String state) {
+        JSONObject json = JSON.parseObject(state.replace("VideoCamera", ""));
+        return (json.getBooleanValue("powerOn") ? 1L : 0L)
+                | (json.getBooleanValue("motionRecord") ? 2L : 0L)
+                | (json.getBooleanValue("light") ? 4L : 0L)
+                | (json.getBooleanValue("fullColor") ? 8L : 0L)
+                | (json.getBooleanValue("flip") ? 16L : 0L)
+                | (json.getBooleanValue("improveProgram") ? 32L : 0L)
+                | (json.getBooleanValue("wdr") ? 64L : 0L)
+                | (json.getBooleanValue("track") ? 128L : 0L)
+                | (json.getBooleanValue("watermark") ? 256L : 0L)
+                | (json.getBooleanValue("sdcardStatus") ? 1L << 9 : 0L)
+                | (json.getBooleanValue("maxClient") ? 1L << 10 : 0L)
+                | (json.getBooleanValue("nightMode") ? 1L << 11 : 0L)
+                | (json.getBooleanValue("miniLevel") ? 1L << 12 : 0L);
+    }
+
+    /**
+     * @return state the behavior models are keyed by, formatted once per state
+     */
     public String toSystemDeviceString() {
+        String state = DEVICE_STRINGS.get(systemStateKey);
+        return state != null ? state : DEVICE_STRINGS.put(systemStateKey, formatSystemDeviceString());
+    }
+
+    /**
+     * Packed state in the layout of {@link VirtualDevice.VideoCamera#stateKey()}, so twin and
+     * device states compare directly.
+     * @return packed full state
+     */
+    public long stateKey() {
+        return stateKey;
+    }
+
+    /**
+     * @return packed {@link #toSystemDeviceString()}, as {@link VirtualDevice.VideoCamera#systemStateKey()}
+     */
+    public long systemStateKey() {
+        return systemStateKey;
+    }
+
+    private void pack() {
+        long flags = (powerOn ? 1L : 0L)
+                | (motionRecord ? 2L : 0L)
+                | (light ? 4L : 0L)
+                | (fullColor ? 8L : 0L)
+                | (flip ? 16L : 0L)
+                | (improveProgram ? 32L : 0L)
+                | (wdr ? 64L : 0L)
+                | (track ? 128L : 0L)
+                | (watermark ? 256L : 0L);
+        stateKey = flags
+                | (long) (sdcardStatus & 0xFFF) << 9
+                | (long) (maxClient & 0xFFF) << 21
+                | (long) (nightMode & 0xFFF) << 33
+                | (long) (miniLevel & 0xFFF) << 45;
+        systemStateKey = flags
+                | (sdcardStatus > 0 ? 1L << 9 : 0L)
+                | (maxClient > 0 ? 1L << 10 : 0L)
+                | (nightMode > 0 ? 1L << 11 : 0L)
+                | (miniLevel > 0 ? 1L << 12 : 0L);
+    }
+
+    private String formatSystemDeviceString() {
         boolean sdcardStatusBoolean = sdcardStatus > 0;
         boolean maxClientBoolean = maxClient > 0;
         boolean nightModeBoolean = nightMode > 0;
@@ -262,6 +387,6 @@ public class VCTwin {
 
     @Override
     public int hashCode() {
-        return Objects.hash(isPowerOn(), isMotionRecord(), isLight(), isFullColor(), isFlip(), isImproveProgram(), isWdr(), isTrack(), getSdcardStatus(), isWatermark(), getMaxClient(), getNightMode(), getMiniLevel());
+        return Long.hashCode(stateKey);
     }
 }
@@ -1,9 +1,11 @@
 package IoTSystem.DeviceTwin;
 
+import VirtualDevice.WashingMachine;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WMTwin {
     private boolean powerOn;
@@ -13,6 +15,13 @@ public class WMTwin {
     private boolean rinsing;
     private boolean spinning;
 
+    private static final Map<String, Long> TARGET_KEYS = new ConcurrentHashMap<>();
+    private static final StateStrings DEVICE_STRINGS = new StateStrings(6);
+
+    // Packed state, kept up to date by every setter
+    private long stateKey;
+    private long systemStateKey;
+
     public WMTwin() {
         this.powerOn = false;
         this.doorOpen = false;
@@ -20,6 +29,7 @@ public class WMTwin {
         this.washing = false;
         this.rinsing = false;
         this.spinning = false;
+        pack();
     }
 
     public WMTwin(Boolean powerOn, Boolean doorOpen, Boolean waterIn, Boolean washing, Boolean rinsing, Boolean spinning) {
@@ -29,6 +39,7 @@ public class WMTwin {
         this.washing = washing;
         this.rinsing = rinsing;
         this.spinning = spinning;
+        pack();
     }
 
     public boolean isPowerOn() {
@@ -37,6 +48,7 @@ public class WMTwin {
 
     public void setPowerOn(boolean powerOn) {
         this.powerOn = powerOn;
+        pack();
     }
 
     public boolean isDoorOpen() {
@@ -45,6 +57,7 @@ public class WMTwin {
 
     public void setDoorOpen(boolean doorOpen) {
         this.doorOpen = doorOpen;
+        pack();
     }
 
     public boolean isWaterIn() {
@@ -53,6 +66,7 @@ public class WMTwin {
 
     public void setWaterIn(boolean waterIn) {
         this.waterIn = waterIn;
+        pack();
     }
 
     public boolean isWashing() {
@@ -61,6 +75,7 @@ public class WMTwin {
 
     public void setWashing(boolean washing) {
         this.washing = washing;
+        pack();
     }
 
     public boolean isRinsing() {
@@ -69,6 +84,7 @@ public class WMTwin {
 
     public void setRinsing(boolean rinsing) {
         this.rinsing = rinsing;
+        pack();
     }
 
     public boolean isSpinning() {
@@ -77,6 +93,7 @@ public class WMTwin {
 
     public void setSpinning(boolean spinning) {
         this.spinning = spinning;
+        pack();
     }
 
     @Override
@@ -91,16 +108,91 @@ public class WMTwin {
                 "}";
     }
 
+    /**
+     * Take the state of a model node. Each distinct node is parsed once.
+     * @param input node content, e.g. {@code WashingMachine{...}}
+     */
     public void setTargetState(String input) {
-        JSONObject json = JSON.parseObject(input.replace("WashingMachine", ""));
-        this.powerOn = json.getBoolean("powerOn");
-        this.doorOpen = json.getBoolean("doorOpen");
-        this.waterIn = json.getBoolean("waterIn");
-        this.washing = json.getBoolean("washing");
-        this.rinsing = json.getBoolean("rinsing");
-        this.spinning = json.getBoolean("spinning");
-    }
+        setTargetState(TARGET_KEYS.computeIfAbsent(input, WMTwin::systemStateKeyOf));
+    }
+
+    /**
+     * Take the state of a model node by its packed system state key. Every flag is
+     * taken from the node, as the model tracks the whole state of a washing machine.
+     * @param systemStateKey packed system state, as {@link #systemStateKey()}
+     */
+    public void setTargetState(long systemStateKey) {
+        this.powerOn = (systemStateKey & 1L) != 0;
+        this.doorOpen = (systemStateKey & 2L) != 0;
+        this.waterIn = (systemStateKey & 4L) != 0;
+        this.washing = (systemStateKey & 8L) != 0;
+        this.rinsing = (systemStateKey & 16L) != 0;
+        this.spinning = (systemStateKey & 32L) != 0;
+        pack();
+    }
+
+    /**
+     * Copy the full state of a device.
+     * @param device device this twin mirrors
+     */
+    public void updateFrom(WashingMachine device) {
+        this.powerOn = device.isPowerOn();
+        this.doorOpen = device.isDoorOpen();
+        this.waterIn = device.isWaterIn();
+        this.washing = device.isWashing();
+        this.rinsing = device.isRinsing();
+        this.spinning = device.isSpinning();
+        pack();
+    }
+
+    /**
+     * @param state system device string, e.g. the content of a behavior model node
+     * @return packed system state, as {@link #systemStateKey()}
+     */
+    public static long systemStateKeyOf(String state) {
+        JSONObject json = JSON.parseObject(state.replace("WashingMachine", ""));
+        return (json.getBooleanValue("powerOn") ? 1L : 0L)
+                | (json.getBooleanValue("doorOpen") ? 2L : 0L)
+                | (json.getBooleanValue("waterIn") ? 4L : 0L)
+                | (json.getBooleanValue("washing") ? 8L : 0L)
+                | (json.getBooleanValue("rinsing") ? 16L : 0L)
+                | (json.getBooleanValue("spinning") ? 32L : 0L);
+    }
+    /**
+     * @return state the behavior models are keyed by, formatted once per state
+     */
     public String toDeviceString() {
+        String state = DEVICE_STRINGS.get(systemStateKey);
+        return state != null ? state : DEVICE_STRINGS.put(systemStateKey, formatDeviceString());
+    }
+
+    /**
+     * Packed state in the layout of {@link VirtualDevice.WashingMachine#stateKey()}, so twin and
+     * device states compare directly.
+     * @return packed full state
+     */
+    public long stateKey() {
+        return stateKey;
+    }
+
+    /**
+     * @return packed {@link #toDeviceString()}, as {@link VirtualDevice.WashingMachine#systemStateKey()}
+     */
+    public long systemStateKey() {
+        return systemStateKey;
+    }
+
+    private void pack() {
+        stateKey = (powerOn ? 1L : 0L)
+                | (doorOpen ? 2L : 0L)
+                | (waterIn ? 4L : 0L)
+                | (washing ? 8L : 0L)
+                | (rinsing ? 16L : 0L)
+                | (spinning ? 32L : 0L);
+        systemStateKey = stateKey;
+    }
+
+    private String formatDeviceString() {
         return "WashingMachine{" +
                 "'powerOn':" + powerOn +
                 ", 'doorOpen':" + doorOpen +
@@ -126,6 +218,6 @@ public class WMTwin {
 
     @Override
     public int hashCode() {
-        return Objects.hash(isPowerOn(), isDoorOpen(), isWaterIn(), isWashing(), isRinsing(), isSpinning());
+        return Long.hashCode(stateKey);
     }
 }
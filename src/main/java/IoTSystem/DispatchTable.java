@@ -0,0 +1,147 @@
+package IoTSystem;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Pre-resolved controller APIs of one controller class, keyed by API name and arity.
+ * Only the device APIs a driver lists are exposed, so a message cannot reach accessors
+ * such as setDeviceId. Tables are built once per driver, so dispatching a message needs
+ * neither reflective lookup nor re-deriving argument types.
+ */
+public class DispatchTable {
+    private static final Invoker[] NONE = new Invoker[0];
+
+    private final Class<?> controllerClass;
+
+    /**
+     * api name -&gt; arity -&gt; invoker
+     */
+    private final Map<String, Invoker[]> invokers = new HashMap<>();
+
+    private DispatchTable(Class<?> controllerClass, Collection<String> apis) {
+        this.controllerClass = controllerClass;
+        Set<String> exposed = new HashSet<>(apis);
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method method : controllerClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || !exposed.contains(method.getName())) {
+                continue;
+            }
+            int arity = method.getParameterCount();
+            Invoker[] byArity = invokers.getOrDefault(method.getName(), NONE);
+            if (byArity.length <= arity) {
+                byArity = Arrays.copyOf(byArity, arity + 1);
+                invokers.put(method.getName(), byArity);
+            }
+            if (byArity[arity] != null) {
+                throw new IllegalArgumentException("Ambiguous overload of " + controllerClass.getSimpleName() + "." + method.getName()
+                        + " with " + arity + " argument(s)");
+            }
+            try {
+                MethodHandle handle = lookup.unreflect(method)
+                        .asSpreader(Object[].class, arity)
+                        .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+                byArity[arity] = new Invoker(method.getName(), method.getParameterTypes(), handle);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot access " + method, e);
+            }
+        }
+        for (String api : exposed) {
+            if (!invokers.containsKey(api)) {
+                throw new IllegalArgumentException(controllerClass.getSimpleName() + " has no public api " + api);
+            }
+        }
+    }
+
+    /**
+     * @param controllerClass controller class
+     * @param apis names of the device APIs to expose
+     * @return dispatch table of the APIs
+     * @throws IllegalArgumentException if an API is missing or has two overloads of the same arity
+     */
+    public static DispatchTable of(Class<?> controllerClass, Collection<String> apis) {
+        return new DispatchTable(controllerClass, apis);
+    }
+
+    /**
+     * @param api api name
+     * @param arity number of arguments
+     * @return invoker, or null if the controller has no such API
+     */
+    public Invoker get(String api, int arity) {
+        Invoker[] byArity = invokers.get(api);
+        if (byArity == null || arity >= byArity.length) {
+            return null;
+        }
+        return byArity[arity];
+    }
+
+    public boolean hasApi(String api) {
+        return invokers.containsKey(api);
+    }
+
+    /**
+     * @param apis api names, e.g. the APIs of a behavior model
+     * @return the APIs the controller does not implement
+     */
+    public List<String> missingApis(Collection<String> apis) {
+        List<String> missing = new ArrayList<>();
+        for (String api : apis) {
+            if (!hasApi(api)) {
+                missing.add(api);
+            }
+        }
+        return missing;
+    }
+
+    public Class<?> getControllerClass() {
+        return controllerClass;
+    }
+
+    public static class Invoker {
+        private final String name;
+        private final Class<?>[] parameterTypes;
+        private final MethodHandle handle;
+
+        Invoker(String name, Class<?>[] parameterTypes, MethodHandle handle) {
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+            this.handle = handle;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Convert message arguments to the parameter types of the API.
+         * @param args raw message arguments
+         * @return converted arguments
+         */
+        public Object[] parseArgs(String[] args) {
+            Object[] parsed = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                parsed[i] = parseArg(parameterTypes[i], args[i]);
+            }
+            return parsed;
+        }
+
+        public void invoke(Object controller, Object[] args) throws Throwable {
+            Object ignored = (Object) handle.invokeExact(controller, args);
+        }
+
+        private static Object parseArg(Class<?> type, String arg) {
+            if (type == int.class || type == Integer.class) {
+                return Integer.parseInt(arg);
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return Boolean.parseBoolean(arg);
+            }
+            return arg;
+        }
+    }
+}
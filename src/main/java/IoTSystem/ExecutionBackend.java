@@ -0,0 +1,198 @@
+package IoTSystem;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes device commands for the Execution Monitor. Either a bounded thread pool with a
+ * rejection policy, or one virtual thread per command on JDKs that support it.
+ * Queue depth, active count and rejections are exposed for monitoring.
+ */
+public class ExecutionBackend {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public enum RejectionPolicy {
+        /**
+         * Run the command on the submitting lane, which slows that lane down.
+         */
+        CALLER_RUNS,
+        /**
+         * Block the submitting lane until the queue has room.
+         */
+        BLOCK,
+        /**
+         * Drop the command and throw {@link RejectedExecutionException}.
+         */
+        ABORT
+    }
+
+    private final String name;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder saturated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private ExecutionBackend(String name, ExecutorService executor, ThreadPoolExecutor pool) {
+        this.name = name;
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * @param threads maximum number of commands executing at once
+     * @param queueCapacity commands waiting for a thread before the policy applies
+     * @param policy what to do when the queue is full
+     * @return bounded backend
+     */
+    public static ExecutionBackend bounded(int threads, int queueCapacity, RejectionPolicy policy) {
+        ExecutionBackend[] self = new ExecutionBackend[1];
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedThreads("command"), (task, executor) -> {
+            self[0].saturated.increment();
+            switch (policy) {
+                case CALLER_RUNS:
+                    if (!executor.isShutdown()) {
+                        task.run();
+                        return;
+                    }
+                    break;
+                case BLOCK:
+                    try {
+                        if (!executor.isShutdown()) {
+                            executor.getQueue().put(task);
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            self[0].rejected.increment();
+            throw new RejectedExecutionException("Command rejected by " + self[0]);
+        });
+        pool.allowCoreThreadTimeOut(true);
+        self[0] = new ExecutionBackend("bounded", pool, pool);
+        return self[0];
+    }
+
+    /**
+     * One virtual thread per command. Falls back to a bounded pool when the JDK has no
+     * virtual threads.
+     * @return virtual thread backend
+     */
+    public static ExecutionBackend virtualThreads() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new ExecutionBackend("virtual", executor, null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not available on this JDK, using a bounded pool");
+            return defaults();
+        }
+    }
+
+    /**
+     * Backend configured by the system properties {@code moco.executor} (bounded or virtual),
+     * {@code moco.executor.threads}, {@code moco.executor.queue} and {@code moco.executor.rejection}.
+     * @return configured backend
+     */
+    public static ExecutionBackend fromSystemProperties() {
+        if ("virtual".equalsIgnoreCase(System.getProperty("moco.executor"))) {
+            return virtualThreads();
+        }
+        int threads = Integer.getInteger("moco.executor.threads", Runtime.getRuntime().availableProcessors() * 2);
+        int queue = Integer.getInteger("moco.executor.queue", 1024);
+        RejectionPolicy policy = RejectionPolicy.valueOf(System.getProperty("moco.executor.rejection", RejectionPolicy.CALLER_RUNS.name()).toUpperCase());
+        return bounded(threads, queue, policy);
+    }
+
+    public static ExecutionBackend defaults() {
+        return bounded(Runtime.getRuntime().availableProcessors() * 2, 1024, RejectionPolicy.CALLER_RUNS);
+    }
+
+    /**
+     * @param command device command
+     * @throws RejectedExecutionException if the backend is saturated and the policy is ABORT, or it is shut down
+     */
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.increment();
+            }
+        });
+    }
+
+    public int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * @return how often the queue was full and the rejection policy applied
+     */
+    public long getSaturatedCount() {
+        return saturated.sum();
+    }
+
+    /**
+     * @return commands that were dropped
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionBackend{" +
+                "'mode':'" + name + '\'' +
+                ", 'queueDepth':" + getQueueDepth() +
+                ", 'active':" + getActiveCount() +
+                ", 'completed':" + getCompletedCount() +
+                ", 'saturated':" + getSaturatedCount() +
+                ", 'rejected':" + getRejectedCount() +
+                '}';
+    }
+}
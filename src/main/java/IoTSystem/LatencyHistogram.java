@@ -0,0 +1,152 @@
+package IoTSystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram: each
+ * power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value
+ * is reported within about 3% of its true value. Recording is a few shifts and one atomic
+ * increment, so it can sit on the hot path of every stage.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values from 2^MAX_EXPONENT ns (about 137 s) up land in the last bucket
+    private static final int MAX_EXPONENT = 37;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(bucketOf(value));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until max holds the largest value
+        }
+    }
+
+    /**
+     * @return copy of the counts, consistent enough for reporting while recording continues
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Largest value that falls into the bucket
+    static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+        private final double mean;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long count = 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+                sum += (double) counts[i] * highestValueOf(i);
+            }
+            this.count = count;
+            this.max = max;
+            this.mean = count == 0 ? 0 : sum / count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return mean of the bucketed values
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return smallest bucket value that at least percentile percent of the values do not exceed
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "'count':" + count +
+                    ", 'mean':" + (long) mean +
+                    ", 'p50':" + getValueAtPercentile(50) +
+                    ", 'p99':" + getValueAtPercentile(99) +
+                    ", 'max':" + max +
+                    '}';
+        }
+    }
+
+    public static void main(String[] args) {
+        for (long value : new long[]{0, 1, 31, 32, 63, 64, 65, 1000, 123456789L, 1L << 36}) {
+            int bucket = bucketOf(value);
+            assert highestValueOf(bucket) >= value : value;
+            assert bucket == 0 || highestValueOf(bucket - 1) < value : value;
+            assert highestValueOf(bucket) - value <= value / 16 : value;
+        }
+        assert bucketOf(Long.MAX_VALUE) == BUCKETS - 1;
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Snapshot snapshot = histogram.snapshot();
+        assert snapshot.getCount() == 1000;
+        assert snapshot.getMax() == 1000000;
+        assert Math.abs(snapshot.getValueAtPercentile(50) - 500000) <= 500000 / 16;
+        assert Math.abs(snapshot.getValueAtPercentile(99) - 990000) <= 990000 / 16;
+        assert snapshot.getValueAtPercentile(100) == 1000000;
+    }
+}
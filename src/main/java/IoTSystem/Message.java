@@ -1,14 +1,31 @@
 package IoTSystem;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class Message {
     private String deviceType;
+    // Device the command is addressed to, null for the default device of its type
+    private String deviceId;
     private String deviceAPI;
     private String[] deviceAPIArgs;
+    // Id of the command's latest record in the command journal, -1 if not journaled
+    private volatile long journalId = -1;
+    // System.nanoTime() when the task scheduler last queued the command
+    private volatile long queuedNanos;
+    // Type id of the device driver, -1 until resolved by DeviceDrivers
+    private int typeId = -1;
+    // Completed with the outcome of the command if it was submitted for one
+    private volatile CompletableFuture<CommandOutcome> outcome;
+    private volatile CommandOutcome.PreCheck preCheck = CommandOutcome.PreCheck.NOT_CHECKED;
 
     public Message(String deviceType, String deviceAPI, String[] deviceAPIArgs) {
+        this(deviceType, null, deviceAPI, deviceAPIArgs);
+    }
+
+    public Message(String deviceType, String deviceId, String deviceAPI, String[] deviceAPIArgs) {
         this.deviceType = deviceType;
+        this.deviceId = deviceId;
         this.deviceAPI = deviceAPI;
         this.deviceAPIArgs = deviceAPIArgs;
     }
@@ -17,6 +34,10 @@ public class Message {
         return deviceType;
     }
 
+    public String getDeviceId() {
+        return deviceId;
+    }
+
     public String getDeviceAPI() {
         return deviceAPI;
     }
@@ -25,10 +46,48 @@ public class Message {
         return deviceAPIArgs;
     }
 
+    long getJournalId() {
+        return journalId;
+    }
+
+    void setJournalId(long journalId) {
+        this.journalId = journalId;
+    }
+
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    void setQueuedNanos(long queuedNanos) {
+        this.queuedNanos = queuedNanos;
+    }
+
+    int getTypeId() {
+        return typeId;
+    }
+
+    void setTypeId(int typeId) {
+        this.typeId = typeId;
+    }
+
+    CompletableFuture<CommandOutcome> getOutcome() {
+        return outcome;
+    }
+
+    void setOutcome(CompletableFuture<CommandOutcome> outcome, CommandOutcome.PreCheck preCheck) {
+        this.preCheck = preCheck;
+        this.outcome = outcome;
+    }
+
+    CommandOutcome.PreCheck getPreCheck() {
+        return preCheck;
+    }
+
 
     public String toString() {
         return "Message{" +
                 "'deviceType':'" + deviceType +
+                (deviceId == null ? "" : "', 'deviceId':'" + deviceId) +
                 "', 'deviceAPI':'" + deviceAPI +
                 "', 'deviceAPIArgs':'" + Arrays.toString(deviceAPIArgs) +
                 "'}";
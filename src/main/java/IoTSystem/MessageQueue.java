@@ -3,25 +3,60 @@ package IoTSystem;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MessageQueue {
+public class MessageQueue implements Closeable {
     private static final Logger LOGGER = LogManager.getLogger();
+    // Exactly one of queue and ring is set
     private BlockingQueue<Message> queue;
-    private List<String> history;
+    private MpscRingBuffer<Message> ring;
+    private CommandHistory history;
 
     public MessageQueue() {
         this.queue = new LinkedBlockingQueue<>();
-        this.history = new ArrayList<>();
+        this.history = CommandHistory.fromSystemProperties();
+    }
+
+    /**
+     * Bounded queue backed by a ring buffer. Producers wait when it is full.
+     * Only one thread may call {@link #getMessage()}.
+     * @param capacity maximum number of queued messages
+     * @param waitStrategy how producers and the consumer wait
+     */
+    public MessageQueue(int capacity, MpscRingBuffer.WaitStrategy waitStrategy) {
+        this.ring = new MpscRingBuffer<>(capacity, waitStrategy);
+        this.history = CommandHistory.fromSystemProperties();
+    }
+
+    /**
+     * Queue configured by the system properties {@code moco.queue} (linked or ring),
+     * {@code moco.queue.capacity} and {@code moco.queue.wait} (busy_spin, yield or park).
+     * @return configured queue
+     */
+    public static MessageQueue fromSystemProperties() {
+        if (!"ring".equalsIgnoreCase(System.getProperty("moco.queue"))) {
+            return new MessageQueue();
+        }
+        int capacity = Integer.getInteger("moco.queue.capacity", 65536);
+        MpscRingBuffer.WaitStrategy waitStrategy = MpscRingBuffer.WaitStrategy.valueOf(System.getProperty("moco.queue.wait", "park").toUpperCase());
+        return new MessageQueue(capacity, waitStrategy);
     }
 
     // Add a message to the queue
     public void addMessage(Message message) {
         try {
-            queue.put(message);
+            if (ring != null) {
+                ring.put(message);
+            } else {
+                queue.put(message);
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
@@ -30,26 +65,56 @@ public class MessageQueue {
     // Get a message from the queue
     public Message getMessage() {
         try {
-            return queue.take();
+            return ring != null ? ring.take() : queue.take();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return null;
         }
     }
 
+    public int size() {
+        return ring != null ? ring.size() : queue.size();
+    }
+
     // Add a record to the history
-    public void addHistory(String record) {
-        history.add(record);
+    public void addHistory(Message message, String outcome) {
+        history.append(message, outcome);
+    }
+
+    // Get the history records. Iterate with forEach instead of copying.
+    public CommandHistory getHistory() {
+        return history;
     }
 
-    // Get the history records
-    public List<String> getHistory() {
-        return new ArrayList<>(history);
+    // Close the history, writing out what it still has to spill
+    @Override
+    public void close() throws IOException {
+        history.close();
     }
 
     // Main function to test the basic functionalities
     public static void main(String[] args) {
-        MessageQueue messageQueue = new MessageQueue();
+        test(new MessageQueue());
+        test(new MessageQueue(16, MpscRingBuffer.WaitStrategy.PARK));
+
+        // A spill that cannot keep up drops records instead of queueing them without bound
+        try {
+            File file = File.createTempFile("history", ".log");
+            file.deleteOnExit();
+            CommandHistory.FileSpill spill = new CommandHistory.FileSpill(file, 0);
+            CommandHistory history = new CommandHistory(1, spill);
+            for (int i = 0; i < 3; i++) {
+                history.append(new Message("Yeelight", "turnOn", new String[]{}), "executed " + i);
+            }
+            history.close();
+            assert spill.getDroppedCount() == 2;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOGGER.info("All tests passed!");
+    }
+
+    private static void test(MessageQueue messageQueue) {
 
         // Test adding and getting messages
         Message message1 = new Message("CoffeeMachine", "turnOn", new String[]{});
@@ -70,15 +135,27 @@ public class MessageQueue {
         assert retrievedMessage2.getDeviceAPI().equals("setTemperature");
 
         // Test adding and getting history records
-        messageQueue.addHistory("Processed: CoffeeMachine turnOn");
-        messageQueue.addHistory("Processed: CoffeeMachine setTemperature");
+        messageQueue.addHistory(retrievedMessage1, "executed");
+        messageQueue.addHistory(retrievedMessage2, "executed");
 
-        List<String> history = messageQueue.getHistory();
+        CommandHistory history = messageQueue.getHistory();
         // Verify the history records were added correctly
         assert history.size() == 2;
-        assert history.get(0).equals("Processed: CoffeeMachine turnOn");
-        assert history.get(1).equals("Processed: CoffeeMachine setTemperature");
-
-        LOGGER.info("All tests passed!");
+        List<CommandHistory.Record> records = new ArrayList<>();
+        history.forEach(records::add);
+        assert records.get(0).getApi().equals("turnOn");
+        assert records.get(1).getApi().equals("setTemperature");
+        assert records.get(1).getOutcome().equals("executed");
+
+        // The ring keeps only the newest records once it wraps
+        CommandHistory ring = new CommandHistory(4);
+        for (int i = 0; i < 10; i++) {
+            ring.append(retrievedMessage1, "executed " + i);
+        }
+        assert ring.size() == 4;
+        records.clear();
+        ring.forEach(records::add);
+        assert records.get(0).getOutcome().equals("executed 6");
+        assert records.get(3).getOutcome().equals("executed 9");
     }
 }
@@ -0,0 +1,203 @@
+package IoTSystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free ring buffer for many producers and a single consumer.
+ * Slots are preallocated and every slot carries a sequence number, so producers claim a
+ * slot with one CAS and the consumer never takes a lock. A full buffer makes
+ * {@link #put(Object)} wait, which gives producers backpressure.
+ *
+ * @param <E> element type
+ */
+public class MpscRingBuffer<E> {
+
+    public enum WaitStrategy {
+        /**
+         * Spin on the CPU. Lowest latency, burns a core while idle.
+         */
+        BUSY_SPIN,
+        /**
+         * Spin, yielding the thread between attempts.
+         */
+        YIELD,
+        /**
+         * Spin briefly, then park for a short time between attempts.
+         */
+        PARK;
+
+        void idle(int attempt) {
+            switch (this) {
+                case BUSY_SPIN:
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                default:
+                    if (attempt < 100) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(50_000);
+                    }
+            }
+        }
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+
+    /**
+     * slot -&gt; sequence. Equal to the claim position when the slot is free for a producer,
+     * and to the claim position + 1 once the element is published.
+     */
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Next position to consume. Only written by the consumer.
+     */
+    private volatile long head;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     * @param waitStrategy how to wait when the buffer is full or empty
+     */
+    public MpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Add an element if there is room.
+     * @param element element
+     * @return false if the buffer is full
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, element);
+                    // Publish: the consumer only reads the slot after seeing this sequence
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Add an element, waiting for room if the buffer is full.
+     * @param element element
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(E element) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    /**
+     * Remove the next element. Must only be called from the consumer thread.
+     * @return element, or null if the buffer is empty
+     */
+    public E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = slots.get(index);
+        slots.lazySet(index, null);
+        head = position + 1;
+        // Hand the slot back to producers for the next lap
+        sequences.set(index, position + mask + 1);
+        return element;
+    }
+
+    /**
+     * Remove the next element, waiting until one is available.
+     * @return element
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E element;
+        while ((element = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return element;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(1000, WaitStrategy.YIELD);
+        assert ring.capacity() == 1024;
+
+        int producers = 4;
+        int perProducer = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    try {
+                        ring.put(base + i);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        // Every element arrives exactly once and each producer's elements stay in order
+        int[] last = new int[producers];
+        java.util.Arrays.fill(last, -1);
+        for (int i = 0; i < producers * perProducer; i++) {
+            int value = ring.take();
+            int producer = value / perProducer;
+            assert value % perProducer == last[producer] + 1;
+            last[producer] = value % perProducer;
+        }
+        assert ring.poll() == null;
+    }
+}
@@ -0,0 +1,271 @@
+package IoTSystem;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of every stage of the command pipeline, by device type and API. Each
+ * (device type, api) pair gets one {@link LatencyHistogram} per stage on first use;
+ * afterwards recording is two map lookups and a histogram update, without allocation.
+ * Snapshots can be handed to an {@link Exporter} periodically.
+ */
+public class PipelineMetrics {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final PipelineMetrics SHARED = fromSystemProperties();
+
+    public enum Stage {
+        /**
+         * From acceptance by the task scheduler to the start of dispatch, through the
+         * message queue and the device lane.
+         */
+        QUEUE_WAIT,
+        PRE_CHECK,
+        /**
+         * The controller call: the device command and the twin update the controller makes.
+         */
+        EXECUTION,
+        /**
+         * Twin work the scheduler does around a command: reading the pre-state and comparing
+         * twin and device afterwards.
+         */
+        TWIN_UPDATE,
+        POST_CHECK
+    }
+
+    /**
+     * Api recorded for commands whose api the device does not have, so that unknown apis
+     * all share one bucket instead of each adding histograms.
+     */
+    public static final String UNKNOWN_API = "unknown";
+
+    private static final Stage[] STAGES = Stage.values();
+
+    // deviceType -> api -> histogram per stage
+    private final Map<String, Map<String, LatencyHistogram[]>> histograms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private Exporter exporter;
+
+    /**
+     * @return metrics shared by the whole process, exported as configured by the system
+     * properties {@code moco.metrics.file} and {@code moco.metrics.periodMillis}
+     */
+    public static PipelineMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Metrics that append a snapshot to the file set by {@code moco.metrics.file} every
+     * {@code moco.metrics.periodMillis} (10 s), or that are only kept in memory when no file is set.
+     * @return configured metrics
+     */
+    public static PipelineMetrics fromSystemProperties() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        String file = System.getProperty("moco.metrics.file");
+        if (file != null) {
+            metrics.startExporting(new FileExporter(new File(file)), Long.getLong("moco.metrics.periodMillis", 10000));
+        }
+        return metrics;
+    }
+
+    /**
+     * @param stage pipeline stage
+     * @param deviceType device type of the command
+     * @param api api of the command, {@link #UNKNOWN_API} if it has not been resolved
+     * @param nanos time the stage took
+     */
+    public void record(Stage stage, String deviceType, String api, long nanos) {
+        histograms(deviceType, api)[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Stage stage, String deviceType, String api) {
+        return histograms(deviceType, api)[stage.ordinal()];
+    }
+
+    private LatencyHistogram[] histograms(String deviceType, String api) {
+        Map<String, LatencyHistogram[]> byApi = histograms.get(deviceType);
+        if (byApi == null) {
+            byApi = histograms.computeIfAbsent(deviceType, key -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram[] stages = byApi.get(api);
+        if (stages == null) {
+            stages = byApi.computeIfAbsent(api, key -> {
+                LatencyHistogram[] created = new LatencyHistogram[STAGES.length];
+                for (int i = 0; i < created.length; i++) {
+                    created[i] = new LatencyHistogram();
+                }
+                return created;
+            });
+        }
+        return stages;
+    }
+
+    /**
+     * @return snapshot of every histogram that has recorded a value
+     */
+    public List<Row> snapshot() {
+        long timestamp = System.currentTimeMillis();
+        List<Row> rows = new ArrayList<>();
+        histograms.forEach((deviceType, byApi) -> byApi.forEach((api, stages) -> {
+            for (Stage stage : STAGES) {
+                LatencyHistogram.Snapshot snapshot = stages[stage.ordinal()].snapshot();
+                if (snapshot.getCount() > 0) {
+                    rows.add(new Row(timestamp, stage, deviceType, api, snapshot));
+                }
+            }
+        }));
+        return rows;
+    }
+
+    /**
+     * Hand a snapshot to the exporter every period, on a daemon thread. Counts are cumulative
+     * since start. Replaces an exporter started before.
+     * @param exporter receives the snapshots
+     * @param periodMillis time between snapshots
+     */
+    public synchronized void startExporting(Exporter exporter, long periodMillis) {
+        stopExporting();
+        this.exporter = exporter;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> export(exporter), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop periodic exporting, handing a last snapshot to the exporter.
+     */
+    public synchronized void stopExporting() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            export(exporter);
+            exporter = null;
+        }
+    }
+
+    private void export(Exporter exporter) {
+        try {
+            exporter.export(snapshot());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to export pipeline metrics", e);
+        }
+    }
+
+    public interface Exporter {
+        void export(List<Row> rows);
+    }
+
+    public static class Row {
+        private final long timestamp;
+        private final Stage stage;
+        private final String deviceType;
+        private final String api;
+        private final LatencyHistogram.Snapshot snapshot;
+
+        Row(long timestamp, Stage stage, String deviceType, String api, LatencyHistogram.Snapshot snapshot) {
+            this.timestamp = timestamp;
+            this.stage = stage;
+            this.deviceType = deviceType;
+            this.api = api;
+            this.snapshot = snapshot;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public String getDeviceType() {
+            return deviceType;
+        }
+
+        public String getApi() {
+            return api;
+        }
+
+        public LatencyHistogram.Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            return "Row{" +
+                    "'timestamp':" + timestamp +
+                    ", 'stage':'" + stage + '\'' +
+                    ", 'deviceType':'" + deviceType + '\'' +
+                    ", 'api':'" + api + '\'' +
+                    ", 'snapshot':" + snapshot +
+                    '}';
+        }
+    }
+
+    /**
+     * Appends every snapshot to a file as tab-separated lines: timestamp, stage, device type,
+     * api, count, then mean, p50, p90, p99 and max in microseconds.
+     */
+    public static class FileExporter implements Exporter {
+        private final File file;
+
+        public FileExporter(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void export(List<Row> rows) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+                for (Row row : rows) {
+                    LatencyHistogram.Snapshot snapshot = row.getSnapshot();
+                    writer.write(row.getTimestamp() + "\t" + row.getStage() + "\t" + row.getDeviceType() + "\t" + row.getApi()
+                            + "\t" + snapshot.getCount()
+                            + "\t" + micros((long) snapshot.getMean())
+                            + "\t" + micros(snapshot.getValueAtPercentile(50))
+                            + "\t" + micros(snapshot.getValueAtPercentile(90))
+                            + "\t" + micros(snapshot.getValueAtPercentile(99))
+                            + "\t" + micros(snapshot.getMax()) + "\n");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String micros(long nanos) {
+            return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(Stage.EXECUTION, "Yeelight", "turnOn", 2000);
+        metrics.record(Stage.EXECUTION, "Yeelight", "turnOn", 4000);
+        metrics.record(Stage.PRE_CHECK, "Yeelight", "turnOff", 100);
+        assert metrics.histogram(Stage.EXECUTION, "Yeelight", "turnOn").snapshot().getCount() == 2;
+        assert metrics.snapshot().size() == 2;
+
+        File file = File.createTempFile("metrics", ".tsv");
+        file.deleteOnExit();
+        metrics.startExporting(new FileExporter(file), 50);
+        Thread.sleep(200);
+        metrics.stopExporting();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            assert line != null && line.split("\t").length == 10 : line;
+        }
+        LOGGER.info(metrics.snapshot());
+    }
+}
@@ -7,22 +7,30 @@ import VirtualDevice.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 public class TaskScheduler {
     private static final Logger LOGGER = LogManager.getLogger();
     private final ExecutorService executor;
-    private static DelayQueue<DelayedMessage> delayedQueue = new DelayQueue<>();;
+    // Worker threads shared by all device lanes
+    private final ExecutorService laneExecutor;
+    // Devices by id, each with its own lane
+    private final DeviceRegistry devices;
+    // Threads that execute the device commands themselves
+    private ExecutionBackend executionBackend = ExecutionBackend.fromSystemProperties();
+    // Scheduled commands of this scheduler, journaled once a journal is open
+    private DelayQueue<DelayedMessage> delayedQueue = new DelayQueue<>();
     private MessageQueue messageQueue;
-    private CMController cmController;
-    private GatewayController gatewayController;
-    private LightController lightController;
-    private VCController vcController;
-    private WMController wmController;
+    // Write-ahead journal of accepted and retried commands, null if journaling is off
+    private CommandJournal journal;
+    private final PipelineMetrics metrics = PipelineMetrics.shared();
+    // Compare twin and device with the behavior model after every command
+    private volatile boolean postCheck = Boolean.getBoolean("moco.postCheck");
 
     public TaskScheduler(int threadPoolSize, CMController cmController) {
         if (threadPoolSize == 0) {
@@ -30,9 +38,12 @@ public class TaskScheduler {
         }else{
             this.executor = Executors.newFixedThreadPool(threadPoolSize);
         }
-        this.messageQueue = new MessageQueue();
-        this.cmController = cmController;
+        this.laneExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.devices = new DeviceRegistry(laneExecutor, this::dispatchMessage);
+        this.messageQueue = MessageQueue.fromSystemProperties();
         this.delayedQueue = new DelayQueue<>();
+        register(cmController);
+        openJournal(CommandJournal.fromSystemProperties());
     }
 
     public TaskScheduler(int threadPoolSize, CMController cmController, GatewayController gatewayController, LightController lightController, VCController vcController, WMController wmController) {
@@ -41,19 +52,186 @@ public class TaskScheduler {
         }else{
             this.executor = Executors.newFixedThreadPool(threadPoolSize);
         }
-        this.messageQueue = new MessageQueue();
-        this.cmController = cmController;
+        this.laneExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.devices = new DeviceRegistry(laneExecutor, this::dispatchMessage);
+        this.messageQueue = MessageQueue.fromSystemProperties();
         this.delayedQueue = new DelayQueue<>();
-        this.gatewayController = gatewayController;
-        this.lightController = lightController;
-        this.vcController = vcController;
-        this.wmController = wmController;
+        register(cmController);
+        register(gatewayController);
+        register(lightController);
+        register(vcController);
+        register(wmController);
+        openJournal(CommandJournal.fromSystemProperties());
+    }
+
+    /**
+     * Add a device to the fleet under the id of its controller. The first device of a type
+     * also receives the messages of that type without a device id.
+     * @param driver registered driver of the device type
+     * @param controller controller of the device
+     * @throws IllegalArgumentException if a device with the same id is registered
+     */
+    public <C> void register(DeviceDriver<C> driver, C controller) {
+        devices.register(driver, controller);
+    }
+
+    public void register(CMController controller) {
+        registerIfPresent(DeviceDrivers.COFFEE_MACHINE, controller);
+    }
+
+    public void register(GatewayController controller) {
+        registerIfPresent(DeviceDrivers.GATEWAY, controller);
+    }
+
+    public void register(LightController controller) {
+        registerIfPresent(DeviceDrivers.YEELIGHT, controller);
+    }
+
+    public void register(VCController controller) {
+        registerIfPresent(DeviceDrivers.VIDEO_CAMERA, controller);
+    }
+
+    public void register(WMController controller) {
+        registerIfPresent(DeviceDrivers.WASHING_MACHINE, controller);
+    }
+
+    private <C> void registerIfPresent(DeviceDriver<C> driver, C controller) {
+        if (controller != null) {
+            devices.register(driver, controller);
+        }
+    }
+
+    public DeviceRegistry getDevices() {
+        return devices;
+    }
+
+    public ExecutionBackend getExecutionBackend() {
+        return executionBackend;
+    }
+
+    // Replace the command execution backend. Call before start().
+    public void setExecutionBackend(ExecutionBackend executionBackend) {
+        this.executionBackend.shutdown();
+        this.executionBackend = executionBackend;
     }
 
     public void addMessage(Message message) {
+        if (journal != null) {
+            journal.accepted(message);
+        }
+        enqueue(message);
+    }
+
+    /**
+     * Accept a command and learn its outcome once the pipeline is done with it. The future is
+     * completed by the thread that finishes the command, so no thread waits for it. A command
+     * the post-check retries keeps the outcome of its first execution.
+     * @param message command
+     * @param preCheck verdict of the pre-check the caller made
+     * @return outcome of the command
+     */
+    public CompletableFuture<CommandOutcome> submit(Message message, CommandOutcome.PreCheck preCheck) {
+        CompletableFuture<CommandOutcome> outcome = new CompletableFuture<>();
+        message.setOutcome(outcome, preCheck);
+        addMessage(message);
+        return outcome;
+    }
+
+    /**
+     * Accept a command straight onto the lane of its device, past the message queue, without
+     * waiting for the journal. Neither blocks, so a caller may do this under a lock that keeps
+     * its commands to the device in order. {@link #awaitAccepted()} must follow, outside that
+     * lock, before the command counts as accepted.
+     * @param device device the command is addressed to
+     * @param message command
+     * @param preCheck verdict of the pre-check the caller made
+     * @return outcome of the command
+     */
+    public CompletableFuture<CommandOutcome> submit(DeviceRegistry.Device device, Message message, CommandOutcome.PreCheck preCheck) {
+        CompletableFuture<CommandOutcome> outcome = new CompletableFuture<>();
+        message.setOutcome(outcome, preCheck);
+        if (journal != null) {
+            journal.accepted(message, false);
+        }
+        message.setQueuedNanos(System.nanoTime());
+        device.getLane().submit(message);
+        return outcome;
+    }
+
+    // Wait until the commands submitted to device lanes so far are durable in the journal
+    public void awaitAccepted() {
+        if (journal != null) {
+            journal.awaitDurable();
+        }
+    }
+
+    // Report the outcome of a command to whoever submitted it
+    private static void complete(Message message, CommandOutcome.Execution execution, String detail, ExecutionChecker.PostCheckResult postCheck) {
+        CompletableFuture<CommandOutcome> outcome = message.getOutcome();
+        if (outcome != null && !outcome.isDone()) {
+            outcome.complete(new CommandOutcome(message, message.getPreCheck(), execution, detail,
+                    postCheck.getVerdict(), postCheck.getRepairActions()));
+        }
+    }
+
+    public boolean isPostCheck() {
+        return postCheck;
+    }
+
+    // Check every executed command against the behavior model; also set by -Dmoco.postCheck
+    public void setPostCheck(boolean postCheck) {
+        this.postCheck = postCheck;
+    }
+
+    private void enqueue(Message message) {
+        message.setQueuedNanos(System.nanoTime());
         messageQueue.addMessage(message);
     }
 
+    /**
+     * @return latency of the pipeline stages, by device type and API
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Journal accepted and retried commands from now on, and queue the commands an earlier
+     * run left in the journal unfinished. Call before start().
+     * @param journal command journal, or null to leave journaling off
+     * @return number of replayed commands
+     */
+    public int openJournal(CommandJournal journal) {
+        if (journal == null) {
+            return 0;
+        }
+        this.journal = journal;
+        this.delayedQueue = new JournaledDelayQueue(journal);
+        List<CommandJournal.Entry> entries = journal.inFlight();
+        for (CommandJournal.Entry entry : entries) {
+            if (entry.getDueMillis() > 0) {
+                // Keep the original schedule of repair actions
+                DelayedMessage delayedMessage = new DelayedMessage(entry.getMessage(), entry.getDueMillis() - System.currentTimeMillis());
+                ((JournaledDelayQueue) delayedQueue).replay(delayedMessage);
+            } else {
+                enqueue(entry.getMessage());
+            }
+        }
+        if (!entries.isEmpty()) {
+            LOGGER.info("Replayed " + entries.size() + " commands from the command journal");
+        }
+        return entries.size();
+    }
+
+    // Record the outcome of a command in the command history
+    public void addHistory(Message message, String outcome) {
+        messageQueue.addHistory(message, outcome);
+    }
+
+    public CommandHistory getHistory() {
+        return messageQueue.getHistory();
+    }
+
     // Start the task scheduler
     public void start() {
 //        executor.submit(() -> {
@@ -67,14 +245,22 @@ public class TaskScheduler {
         executor.execute(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 Message message = messageQueue.getMessage();
-                dispatchMessage(message);
+                if (message != null) {
+                    // Commands to one device stay ordered, different devices run in parallel
+                    DeviceRegistry.Device device = devices.resolve(message);
+                    if (device != null) {
+                        device.getLane().submit(message);
+                    } else {
+                        reject(message);
+                    }
+                }
             }
         });
         executor.execute(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
                     DelayedMessage delayedMessage = delayedQueue.take();
-                    messageQueue.addMessage(delayedMessage.getMessage());
+                    enqueue(delayedMessage.getMessage());
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
@@ -82,60 +268,99 @@ public class TaskScheduler {
         });
     }
 
-    // Method to dispatch message to the appropriate controller
-    private void dispatchMessage(Message message) {
-        if (message != null) {
-            try {
-                LOGGER.info("[Handling...]" + message);
-                String deviceType = message.getDeviceType();
-                String api = message.getDeviceAPI();
-                String[] args = message.getDeviceAPIArgs();
-                // Dispatch the message to the appropriate controller
-                if (args == null) {
-                    args = new String[0];
-                }
-                Class<?>[] argTypes = new Class[args.length];
-                Object[] parsedArgs = new Object[args.length];
-                for (int i = 0; i < args.length; i++) {
-                    parsedArgs[i] = parseArg(args[i]);
-                    argTypes[i] = getPrimitiveType(parsedArgs[i].getClass());
-                }
-                switch (deviceType) {
-                    case "CoffeeMachine":
-                        String state = cmController.getCmTwin().toSystemStateString().replace("CMTwin","CoffeeMachine");
-                        invokeMethod(cmController, api, argTypes, parsedArgs, state, message);
-                        cmController.printInternalState();
-                        break;
-                    case "Gateway":
-                        state = gatewayController.getGatewayTwin().toSystemString().replace("GatewayTwin","Gateway");
-                        invokeMethod(gatewayController, api, argTypes, parsedArgs, state, message);
-                        gatewayController.printInternalState();
-                        break;
-                    case "Yeelight":
-                        state = lightController.getLightTwin().toSystemString().replace("LightTwin","Yeelight");
-                        invokeMethod(lightController, api, argTypes, parsedArgs, state, message);
-                        lightController.printInternalState();
-                        break;
-                    case "VideoCamera":
-                        state = vcController.getVcTwin().toSystemString().replace("VCTwin","VideoCamera");
-                        invokeMethod(vcController, api, argTypes, parsedArgs, state, message);
-                        vcController.printInternalState();
-                        break;
-                    case "WashingMachine":
-                        state = wmController.getWmTwin().toString().replace("WMTwin","WashingMachine");
-                        invokeMethod(wmController, api, argTypes, parsedArgs, state, message);
-                        wmController.printInternalState();
-                        break;
-                    default:
-                        LOGGER.error("Device type not found: " + deviceType);
-                }
+    /**
+     * Turn down a command for a device that is not registered, as the pipeline would.
+     * @param message command
+     * @return outcome of the command, not executed because the device is unknown
+     */
+    public CompletableFuture<CommandOutcome> rejectUnknownDevice(Message message) {
+        CompletableFuture<CommandOutcome> outcome = new CompletableFuture<>();
+        message.setOutcome(outcome, CommandOutcome.PreCheck.NOT_CHECKED);
+        reject(message);
+        return outcome;
+    }
+
+    // A message for a device that is not registered never reaches a lane
+    private void reject(Message message) {
+        LOGGER.error("Device not found: " + message);
+        addHistory(message, "rejected: unknown device");
+        complete(message, CommandOutcome.Execution.NOT_EXECUTED, "rejected: unknown device", ExecutionChecker.PostCheckResult.NOT_CHECKED);
+        if (journal != null) {
+            journal.completed(message.getJournalId());
+        }
+    }
+
+    /**
+     * @param message message
+     * @return system state of the twin of the device the message is addressed to, or
+     * "Invalid" if there is no such device
+     */
+    public String getCurrentState(Message message) {
+        DeviceRegistry.Device device = devices.resolve(message);
+        if (device == null) {
+            return "Invalid";
+        }
+        return device.getDriver().twinState(device.getController());
+    }
 
-            } catch (NoSuchMethodException | InterruptedException e) {
-                e.printStackTrace();
+    // Method to dispatch message to the controller of the device it is addressed to
+    private void dispatchMessage(DeviceRegistry.Device device, Message message, Runnable done) {
+        if (message == null) {
+            done.run();
+            return;
+        }
+        // A retry scheduled while executing gets a new id, so read it first
+        long journalId = message.getJournalId();
+        try {
+            LOGGER.info("[Handling...]" + message);
+            String deviceType = message.getDeviceType();
+            String api = message.getDeviceAPI();
+            String[] args = message.getDeviceAPIArgs();
+            if (args == null) {
+                args = new String[0];
             }
+            metrics.record(PipelineMetrics.Stage.QUEUE_WAIT, deviceType,
+                    device.getDriver().getDispatchTable().hasApi(api) ? api : PipelineMetrics.UNKNOWN_API,
+                    System.nanoTime() - message.getQueuedNanos());
+            dispatch(device.getDriver(), device.getController(), api, args, message, journaled -> {
+                try {
+                    if (journal != null && journaled) {
+                        journal.completed(journalId);
+                    }
+                } finally {
+                    done.run();
+                }
+            });
+        } catch (NoSuchMethodException | RuntimeException e) {
+            // Unknown API, or arguments that do not parse
+            e.printStackTrace();
+            addHistory(message, "failed: " + e);
+            complete(message, CommandOutcome.Execution.FAILED, "failed: " + e, ExecutionChecker.PostCheckResult.NOT_CHECKED);
+            if (journal != null) {
+                journal.completed(journalId);
+            }
+            done.run();
         }
     }
 
+    // Execute a command on a controller, timing the twin work around it. Once the command is
+    // done, done is told whether it is finished for good or is to be replayed from the journal.
+    private void dispatch(DeviceDriver<Object> driver, Object controller, String api, String[] args, Message message,
+                          Consumer<Boolean> done) throws NoSuchMethodException {
+        long start = System.nanoTime();
+        long state = driver.twinStateKey(controller);
+        long twinNanos = System.nanoTime() - start;
+        invokeMethod(driver.getDispatchTable(), controller, api, args, state, message, finished -> {
+            try {
+                long compareStart = System.nanoTime();
+                driver.compareTwin(controller);
+                metrics.record(PipelineMetrics.Stage.TWIN_UPDATE, message.getDeviceType(), api, twinNanos + System.nanoTime() - compareStart);
+            } finally {
+                done.accept(finished);
+            }
+        });
+    }
+
     public static void sleep(int ms) {
         try {
             Thread.sleep(ms);
@@ -145,35 +370,99 @@ public class TaskScheduler {
         }
     }
 
-    public static void invokeMethod(Object controller, String methodName, Class<?>[] argTypes, Object[] args, String currentState, Message message) throws NoSuchMethodException, InterruptedException {
-        Method method = controller.getClass().getMethod(methodName, argTypes);
+    /**
+     * Execute a command on the execution backend and wait until it is done. Commands from the
+     * message queue do not wait; their device lane takes the next command once one is done.
+     * Only the APIs the driver of the message's device type exposes can be called.
+     */
+    public void invokeMethod(Object controller, String methodName, String[] rawArgs, String currentState, Message message) throws NoSuchMethodException, InterruptedException {
+        DeviceDriver<Object> driver = DeviceDrivers.of(message);
+        if (driver == null) {
+            throw new NoSuchMethodException("No driver for " + message.getDeviceType());
+        }
         CountDownLatch latch = new CountDownLatch(1);
-
-        new Thread(() -> {
-            try {
-                method.invoke(controller, args);
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                LOGGER.info("[Done] " + methodName);
-//                ExecutionChecker.postCheck(methodName, currentState, controller, delayedQueue, message);
-                latch.countDown();
-            }
-        }).start();
-
-//        latch.await();
+        invokeMethod(driver.getDispatchTable(), controller, methodName, rawArgs, driver.stateKeyOf(currentState), message, finished -> latch.countDown());
+        latch.await();
     }
 
-    private Object parseArg(String arg) {
+    // Run done once the command is done, with false if it was dropped because the scheduler is stopping
+    private void invokeMethod(DispatchTable table, Object controller, String methodName, String[] rawArgs, long currentState,
+                              Message message, Consumer<Boolean> done) throws NoSuchMethodException {
+        DispatchTable.Invoker invoker = table.get(methodName, rawArgs.length);
+        if (invoker == null) {
+            throw new NoSuchMethodException(controller.getClass().getSimpleName() + "." + methodName + " with " + rawArgs.length + " argument(s)");
+        }
+        Object[] args = invoker.parseArgs(rawArgs);
+
         try {
-            return Integer.parseInt(arg);
-        } catch (NumberFormatException e) {
-            return arg;
+            executionBackend.execute(() -> {
+                String outcome = "executed";
+                CommandOutcome.Execution execution = CommandOutcome.Execution.EXECUTED;
+                ExecutionChecker.PostCheckResult checked = ExecutionChecker.PostCheckResult.NOT_CHECKED;
+                long start = System.nanoTime();
+                try {
+                    invoker.invoke(controller, args);
+                } catch (Throwable e) {
+                    outcome = "failed: " + e;
+                    execution = CommandOutcome.Execution.FAILED;
+                    e.printStackTrace();
+                } finally {
+                    metrics.record(PipelineMetrics.Stage.EXECUTION, message.getDeviceType(), methodName, System.nanoTime() - start);
+                    addHistory(message, outcome);
+                    LOGGER.info("[Done] " + methodName);
+                    try {
+                        if (postCheck && execution == CommandOutcome.Execution.EXECUTED) {
+                            checked = ExecutionChecker.postCheck(methodName, currentState, controller, delayedQueue, message);
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Post-check failed: " + message, e);
+                    } finally {
+                        complete(message, execution, outcome, checked);
+                        // The next command on this device's lane sees the effects of this one
+                        done.accept(true);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Dropped while stopping, the command stays in the journal to be replayed
+            boolean stopping = Thread.currentThread().isInterrupted() || executionBackend.isShutdown();
+            LOGGER.error("Command rejected: " + message + " " + executionBackend);
+            addHistory(message, "rejected by execution backend");
+            complete(message, CommandOutcome.Execution.REJECTED, "rejected by execution backend", ExecutionChecker.PostCheckResult.NOT_CHECKED);
+            done.accept(!stopping);
         }
     }
 
     // Shutdown the task scheduler gracefully
     public void shutdown() {
+        shutdown(executor);
+        // Commands on the lanes resume their lane when done, so let the lanes drain first
+        try {
+            if (!devices.awaitIdle(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Device lanes did not drain before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdown(laneExecutor);
+        executionBackend.shutdown();
+        LOGGER.info(executionBackend);
+        metrics.stopExporting();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close the command journal", e);
+            }
+        }
+        try {
+            messageQueue.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close the command history", e);
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) {
         executor.shutdown();
         try {
             if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -188,11 +477,40 @@ public class TaskScheduler {
         }
     }
 
-    private Class<?> getPrimitiveType(Class<?> wrapper) {
-        if (wrapper == Integer.class) {
-            return int.class;
+    /**
+     * Check that every API of a behavior model is implemented by the controller of the device type.
+     * @param deviceType device type
+     * @param apis api names of the behavior model
+     * @return the APIs the controller does not implement
+     */
+    public List<String> validateApis(String deviceType, Collection<String> apis) {
+        DeviceRegistry.Device device = devices.getDefault(deviceType);
+        if (device == null) {
+            return new ArrayList<>(apis);
+        }
+        return device.getDriver().getDispatchTable().missingApis(apis);
+    }
+
+    /**
+     * Delay queue that journals every scheduled retry before it is queued.
+     */
+    private static class JournaledDelayQueue extends DelayQueue<DelayedMessage> {
+        private final CommandJournal journal;
+
+        JournaledDelayQueue(CommandJournal journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        public boolean offer(DelayedMessage delayedMessage) {
+            journal.retried(delayedMessage.getMessage(), delayedMessage.getStartTime());
+            return super.offer(delayedMessage);
+        }
+
+        // Queue a retry that is already in the journal
+        void replay(DelayedMessage delayedMessage) {
+            super.offer(delayedMessage);
         }
-        return wrapper;
     }
 
     public static void main(String[] args) {
@@ -280,7 +598,34 @@ public class TaskScheduler {
         taskScheduler.addMessage(lcMessage3);
         taskScheduler.addMessage(lcMessage4);
 
+        // A fleet of lights next to the default one, each addressed by its id
+        for (int i = 2; i <= 1000; i++) {
+            String lightId = "light" + i;
+            taskScheduler.register(new LightController(lightId, new Yeelight(10, true, 255, 255, 255), new LightTwin(10, true, 255, 255, 255)));
+            taskScheduler.addMessage(new Message("Yeelight", lightId, "setBrightness", new String[]{String.valueOf(i % 100)}));
+        }
+        assert taskScheduler.getDevices().size() == 1004;
+        assert taskScheduler.getCurrentState(new Message("Yeelight", "light1001", "turnOn", new String[]{})).equals("Invalid");
+
         taskScheduler.start();
+
+        CompletableFuture<CommandOutcome> executed = taskScheduler.submit(new Message("Yeelight", "light2", "turnOff", new String[]{}), CommandOutcome.PreCheck.ACCEPTED);
+        CompletableFuture<CommandOutcome> unknownApi = taskScheduler.submit(new Message("Yeelight", "light3", "blink", new String[]{}), CommandOutcome.PreCheck.NOT_CHECKED);
+        CompletableFuture<CommandOutcome> unknownDevice = taskScheduler.submit(new Message("Yeelight", "light1001", "turnOn", new String[]{}), CommandOutcome.PreCheck.NOT_CHECKED);
+        CompletableFuture<CommandOutcome> badArgs = taskScheduler.submit(new Message("Yeelight", "light4", "setBrightness", new String[]{"bright"}), CommandOutcome.PreCheck.NOT_CHECKED);
+        try {
+            assert executed.get(10, TimeUnit.SECONDS).isExecuted();
+            assert executed.get().getPreCheck() == CommandOutcome.PreCheck.ACCEPTED;
+            assert unknownApi.get(10, TimeUnit.SECONDS).getExecution() == CommandOutcome.Execution.FAILED;
+            assert unknownDevice.get(10, TimeUnit.SECONDS).getExecution() == CommandOutcome.Execution.NOT_EXECUTED;
+            assert badArgs.get(10, TimeUnit.SECONDS).getExecution() == CommandOutcome.Execution.FAILED;
+            // Unknown apis share one bucket of the metrics
+            for (PipelineMetrics.Row row : taskScheduler.getMetrics().snapshot()) {
+                assert !row.getApi().equals("blink");
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError(e);
+        }
         sleep(2000);
         taskScheduler.shutdown();
     }
@@ -0,0 +1,458 @@
+package MOCO;
+
+import graph.Graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * Compiled form of a behavior model. States and APIs are mapped to dense int IDs and the
+ * APIs enabled in each state are kept as a bitset, so a pre-check is one array index and
+ * one bit test. The expected target of every (state, api) pair is kept in a flat
+ * transition table, so a post-check is one array index as well.
+ *
+ * An automaton can be saved in a compact binary form and loaded back through a
+ * {@link MappedByteBuffer}; the bitsets and the transition table are then read straight
+ * from the mapping instead of being copied to the heap.
+ */
+public class BehaviorAutomaton {
+    private static final int MAGIC = 0x4D4F434F;
+    private static final int VERSION = 1;
+
+    private final String[] nodeIds;
+    private final String[] states;
+    private final Map<String, Integer> stateIds;
+    private final String[] apis;
+    private final Map<String, Integer> apiIds;
+
+    /**
+     * Number of longs reserved per state in {@link #allowed}.
+     */
+    private final int words;
+
+    /**
+     * stateId * words + (apiId / 64) -&gt; bitset of the APIs enabled in that state
+     */
+    private final LongBuffer allowed;
+
+    /**
+     * stateId * apiCount + apiId -&gt; target stateId, or -1 when the api is not enabled
+     */
+    private final IntBuffer transitions;
+
+    private final RepairPlans repairPlans;
+
+    // Set once by indexStateKeys
+    private volatile StateKeys stateKeys;
+
+    private BehaviorAutomaton(String[] nodeIds, String[] states, String[] apis, LongBuffer allowed, IntBuffer transitions) {
+        this.nodeIds = nodeIds;
+        this.states = states;
+        this.apis = apis;
+        this.words = wordsFor(apis.length);
+        this.allowed = allowed;
+        this.transitions = transitions;
+        this.stateIds = indexOf(states);
+        this.apiIds = indexOf(apis);
+        this.repairPlans = new RepairPlans(this);
+    }
+
+    /**
+     * Compile a behavior graph loaded by {@link Utils#loadGraphFromFile(String)}.
+     * State IDs are keyed by the node content, i.e. the same string the twins report.
+     * When a learned model has several targets for the same (state, api) pair, the first
+     * edge in {@link Graph#getEdges()} order is kept, as the edge scan it replaces did.
+     *
+     * @param behaviorGraph behavior model
+     * @return compiled automaton
+     */
+    public static BehaviorAutomaton compile(Graph<Object, Object> behaviorGraph) {
+        Map<String, Integer> stateIds = new LinkedHashMap<>();
+        Map<String, String> nodeIds = new HashMap<>();
+        Map<String, Integer> apiIds = new LinkedHashMap<>();
+        Collection<graph.Edge> edges = behaviorGraph.getEdges();
+        int[] sources = new int[edges.size()];
+        int[] targets = new int[edges.size()];
+        int[] names = new int[edges.size()];
+        int i = 0;
+        for (graph.Edge edge : edges) {
+            Node source = Node.fromString(edge.getSource());
+            Node target = Node.fromString(edge.getTarget());
+            sources[i] = idOf(stateIds, source.getContent());
+            targets[i] = idOf(stateIds, target.getContent());
+            nodeIds.putIfAbsent(source.getContent(), source.getNodeId());
+            nodeIds.putIfAbsent(target.getContent(), target.getNodeId());
+            names[i] = idOf(apiIds, edge.getName());
+            i++;
+        }
+
+        int apiCount = apiIds.size();
+        int words = wordsFor(apiCount);
+        long[] allowed = new long[stateIds.size() * words];
+        int[] transitions = new int[stateIds.size() * apiCount];
+        Arrays.fill(transitions, -1);
+        for (int e = 0; e < sources.length; e++) {
+            allowed[sources[e] * words + (names[e] >>> 6)] |= 1L << names[e];
+            int slot = sources[e] * apiCount + names[e];
+            if (transitions[slot] < 0) {
+                transitions[slot] = targets[e];
+            }
+        }
+        String[] states = stateIds.keySet().toArray(new String[0]);
+        String[] stateNames = new String[states.length];
+        for (int s = 0; s < states.length; s++) {
+            stateNames[s] = nodeIds.get(states[s]);
+        }
+        return new BehaviorAutomaton(stateNames, states, apiIds.keySet().toArray(new String[0]), LongBuffer.wrap(allowed), IntBuffer.wrap(transitions));
+    }
+
+    /**
+     * Save the automaton in the binary model format: a header, the state table (node id and
+     * content), the API dictionary, then the bitsets and the transition table, 8-byte aligned.
+     * @param file target file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(states.length);
+            out.writeInt(apis.length);
+            for (int s = 0; s < states.length; s++) {
+                writeString(out, nodeIds[s]);
+                writeString(out, states[s]);
+            }
+            for (String api : apis) {
+                writeString(out, api);
+            }
+            while (out.size() % 8 != 0) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < allowed.capacity(); i++) {
+                out.writeLong(allowed.get(i));
+            }
+            for (int i = 0; i < transitions.capacity(); i++) {
+                out.writeInt(transitions.get(i));
+            }
+        }
+    }
+
+    /**
+     * Load an automaton saved by {@link #writeTo(Path)}. Only the state and API names are
+     * decoded; the bitsets and the transition table stay in the mapped file.
+     * @param file binary model file
+     * @return automaton
+     * @throws IOException if the file cannot be read or is not a binary model
+     */
+    public static BehaviorAutomaton load(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(buffer, file.toString());
+    }
+
+    /**
+     * Read an automaton in the binary model format, e.g. from a model packaged in a jar.
+     * @param buffer buffer positioned at the start of the model
+     * @param source where the model comes from, for error messages
+     * @return automaton
+     * @throws IOException if the buffer does not hold a binary model
+     */
+    public static BehaviorAutomaton read(ByteBuffer buffer, String source) throws IOException {
+        int start = buffer.position();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a binary behavior model: " + source);
+        }
+        int stateCount = buffer.getInt();
+        int apiCount = buffer.getInt();
+        String[] nodeIds = new String[stateCount];
+        String[] states = new String[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            nodeIds[s] = readString(buffer);
+            states[s] = readString(buffer);
+        }
+        String[] apis = new String[apiCount];
+        for (int a = 0; a < apiCount; a++) {
+            apis[a] = readString(buffer);
+        }
+        // Padding is relative to the start of the model, as written
+        buffer.position(start + ((buffer.position() - start + 7) & ~7));
+        int allowedLength = stateCount * wordsFor(apiCount);
+        ByteBuffer allowedBytes = buffer.slice();
+        allowedBytes.limit(allowedLength * 8);
+        buffer.position(buffer.position() + allowedLength * 8);
+        ByteBuffer transitionBytes = buffer.slice();
+        transitionBytes.limit(stateCount * apiCount * 4);
+        return new BehaviorAutomaton(nodeIds, states, apis, allowedBytes.asLongBuffer(), transitionBytes.asIntBuffer());
+    }
+
+    /**
+     * @return true if the tables are read from a binary model rather than compiled on the heap
+     */
+    public boolean isMapped() {
+        return allowed.isDirect();
+    }
+
+    /**
+     * @param state node content
+     * @return state id, or -1 if the state is not part of the model
+     */
+    public int stateId(String state) {
+        Integer id = stateIds.get(state);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Index the states by the packed system state key the twins and devices of the model's
+     * device type report, so the command path finds a state without formatting or hashing
+     * its content. Called once per model, before the model is shared.
+     * @param keyOf packed system state key of a node content
+     */
+    public void indexStateKeys(ToLongFunction<String> keyOf) {
+        long[] keys = new long[states.length];
+        for (int s = 0; s < states.length; s++) {
+            keys[s] = keyOf.applyAsLong(states[s]);
+        }
+        stateKeys = new StateKeys(keys);
+    }
+
+    /**
+     * @param stateKey packed system state key, e.g. LightTwin#systemStateKey()
+     * @return state id, or -1 if the state is not part of the model
+     * @throws IllegalStateException if the states have not been indexed by key
+     */
+    public int stateId(long stateKey) {
+        return indexedKeys().get(stateKey);
+    }
+
+    /**
+     * @param stateId state id
+     * @return packed system state key of the state
+     * @throws IllegalStateException if the states have not been indexed by key
+     */
+    public long stateKey(int stateId) {
+        return indexedKeys().keys[stateId];
+    }
+
+    public boolean hasStateKeys() {
+        return stateKeys != null;
+    }
+
+    private StateKeys indexedKeys() {
+        StateKeys keys = stateKeys;
+        if (keys == null) {
+            throw new IllegalStateException("States of the model are not indexed by key");
+        }
+        return keys;
+    }
+
+    /**
+     * @param api api name
+     * @return api id, or -1 if the api never appears in the model
+     */
+    public int apiId(String api) {
+        Integer id = apiIds.get(api);
+        return id == null ? -1 : id;
+    }
+
+    public boolean isAllowed(int stateId, int apiId) {
+        if (stateId < 0 || apiId < 0) {
+            return false;
+        }
+        return (allowed.get(stateId * words + (apiId >>> 6)) & (1L << apiId)) != 0;
+    }
+
+    public boolean isAllowed(String state, String api) {
+        return isAllowed(stateId(state), apiId(api));
+    }
+
+    /**
+     * @param stateId source state
+     * @param apiId api executed in the source state
+     * @return target state id, or -1 if the model has no such transition
+     */
+    public int next(int stateId, int apiId) {
+        if (stateId < 0 || apiId < 0) {
+            return -1;
+        }
+        return transitions.get(stateId * apis.length + apiId);
+    }
+
+    /**
+     * @param state source state content
+     * @param api api executed in the source state
+     * @return target state content, or "null" if the model has no such transition
+     */
+    public String targetState(String state, String api) {
+        int target = next(stateId(state), apiId(api));
+        return target < 0 ? "null" : states[target];
+    }
+
+    /**
+     * @return shortest repair plans between the states of this model
+     */
+    public RepairPlans repairPlans() {
+        return repairPlans;
+    }
+
+    public int stateCount() {
+        return states.length;
+    }
+
+    public int apiCount() {
+        return apis.length;
+    }
+
+    public String stateContent(int stateId) {
+        return states[stateId];
+    }
+
+    /**
+     * @param stateId state id
+     * @return id of the state in the learned model, e.g. S0
+     */
+    public String nodeId(int stateId) {
+        return nodeIds[stateId];
+    }
+
+    public String apiName(int apiId) {
+        return apis[apiId];
+    }
+
+    public List<String> getApis() {
+        return Collections.unmodifiableList(Arrays.asList(apis));
+    }
+
+    /**
+     * Packed state key -&gt; state id, open addressing with linear probing. When two states
+     * share a key the first one wins.
+     */
+    private static final class StateKeys {
+        // By state id
+        private final long[] keys;
+        private final long[] slotKeys;
+        private final int[] slotIds;
+        private final int mask;
+
+        StateKeys(long[] keys) {
+            this.keys = keys;
+            int capacity = Integer.highestOneBit(Math.max(2, keys.length) * 2 - 1) << 1;
+            slotKeys = new long[capacity];
+            slotIds = new int[capacity];
+            Arrays.fill(slotIds, -1);
+            mask = capacity - 1;
+            for (int s = 0; s < keys.length; s++) {
+                int slot = slotOf(keys[s]);
+                if (slotIds[slot] < 0) {
+                    slotKeys[slot] = keys[s];
+                    slotIds[slot] = s;
+                }
+            }
+        }
+
+        int get(long key) {
+            return slotIds[slotOf(key)];
+        }
+
+        // Slot holding the key, or the empty slot where it would go
+        private int slotOf(long key) {
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (slotIds[slot] >= 0 && slotKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    private static int idOf(Map<String, Integer> ids, String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    private static Map<String, Integer> indexOf(String[] values) {
+        Map<String, Integer> ids = new HashMap<>(values.length * 2);
+        for (int i = 0; i < values.length; i++) {
+            ids.put(values[i], i);
+        }
+        return ids;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int wordsFor(int apiCount) {
+        return Math.max(1, (apiCount + 63) >>> 6);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Graph<Object, Object> behaviorGraph = Utils.loadGraphFromFile("src/main/java/MOCO/modelFiles/yeelight.json");
+        BehaviorAutomaton automaton = compile(behaviorGraph);
+        Map<String, Set<String>> outEdgeApis = Utils.loadOutEdgeApis(behaviorGraph);
+
+        // Every (state, api) pair must agree with the string-keyed lookup it replaces
+        for (int s = 0; s < automaton.stateCount(); s++) {
+            String state = automaton.stateContent(s);
+            for (int a = 0; a < automaton.apiCount(); a++) {
+                boolean expected = outEdgeApis.containsKey(state) && outEdgeApis.get(state).contains(automaton.apiName(a));
+                assert automaton.isAllowed(s, a) == expected;
+            }
+        }
+        // Every transition must point at the target of an edge with the same source and name
+        for (graph.Edge edge : behaviorGraph.getEdges()) {
+            String source = Node.fromString(edge.getSource()).getContent();
+            assert !automaton.targetState(source, edge.getName()).equals("null");
+        }
+
+        // The binary form must answer every lookup the same way
+        File file = File.createTempFile("yeelight", ".bin");
+        file.deleteOnExit();
+        automaton.writeTo(file.toPath());
+        BehaviorAutomaton loaded = load(file.toPath());
+        assert loaded.stateCount() == automaton.stateCount() && loaded.apiCount() == automaton.apiCount();
+        for (int s = 0; s < automaton.stateCount(); s++) {
+            assert loaded.stateContent(s).equals(automaton.stateContent(s));
+            assert loaded.nodeId(s).equals(automaton.nodeId(s));
+            for (int a = 0; a < automaton.apiCount(); a++) {
+                assert loaded.isAllowed(s, a) == automaton.isAllowed(s, a);
+                assert loaded.next(s, a) == automaton.next(s, a);
+            }
+        }
+        // A model embedded at an unaligned offset reads the same
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer embedded = ByteBuffer.allocate(bytes.length + 3);
+        embedded.position(3);
+        embedded.put(bytes);
+        embedded.position(3);
+        BehaviorAutomaton read = read(embedded, "embedded");
+        for (int s = 0; s < automaton.stateCount(); s++) {
+            for (int a = 0; a < automaton.apiCount(); a++) {
+                assert read.next(s, a) == automaton.next(s, a);
+            }
+        }
+        System.out.println("States: " + automaton.stateCount() + ", APIs: " + automaton.apiCount() + ", binary size: " + file.length());
+    }
+}
@@ -3,6 +3,8 @@ package MOCO;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
+import java.util.Objects;
+
 public class Edge {
     String source;
     String target;
@@ -35,6 +37,23 @@ public class Edge {
                 '}';
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Edge)) {
+            return false;
+        }
+        Edge edge = (Edge) obj;
+        return Objects.equals(source, edge.source) && Objects.equals(target, edge.target) && Objects.equals(api, edge.api);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(source, target, api);
+    }
+
     public Edge fromString(String input){
         JSONObject json = JSON.parseObject(input.replace("Edge", ""));
         return new Edge(json.getString("source"), json.getString("target"), json.getString("api"));
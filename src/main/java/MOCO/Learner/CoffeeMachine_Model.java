@@ -14,12 +14,10 @@ import static MOCO.Utils.saveEdgesToFile;
 
 public class CoffeeMachine_Model {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static Map<String, Set<String>> stateTransitions;
     private static final int MAX_MODE = 20;
 
-    public CoffeeMachine_Model() {
-        stateTransitions = new HashMap<>();
-    }
+    private static final LearnerEngine<CoffeeMachine> ENGINE = new LearnerEngine<>(getAllPossibleAPIs(), CoffeeMachine::new,
+            CoffeeMachine::copy, CoffeeMachine::systemStateKey, CoffeeMachine::toSystemStateString, CoffeeMachine_Model::executeApi, MAX_MODE, CoffeeMachine::stateKey);
 
     private static List<String> getAllPossibleAPIs() {
         List<String> apis = new ArrayList<>();
@@ -37,81 +35,28 @@ public class CoffeeMachine_Model {
         return apis;
     }
 
-    private static String executeApi(String api, CoffeeMachine device){
+    private static boolean executeApi(String api, CoffeeMachine device){
         switch (api) {
             case "turnOn":
-                return device.turnOn().equals("success") ? device.toString() : "skip";
+                return device.turnOn().equals("success");
             case "addWater":
-                return device.addWater().equals("success") ? device.toString() : "skip";
+                return device.addWater().equals("success");
             case "addCoffeeBean":
-                return device.addCoffeeBean().equals("success") ? device.toString() : "skip";
+                return device.addCoffeeBean().equals("success");
             case "addMilk":
-                return device.addMilk().equals("success") ? device.toString() : "skip";
+                return device.addMilk().equals("success");
             case "placeCup":
-                return device.placeCup().equals("success") ? device.toString() : "skip";
+                return device.placeCup().equals("success");
             case "fetchCoffee":
-                return device.fetchCoffee().equals("success") ? device.toString() : "skip";
+                return device.fetchCoffee().equals("success");
             case "brewCoffee_1":
-                return device.brewCoffee(1).equals("success") ? device.toString() : "skip";
+                return device.brewCoffee(1).equals("success");
             case "brewCoffee_2":
-                return device.brewCoffee(2).equals("success") ? device.toString() : "skip";
+                return device.brewCoffee(2).equals("success");
             case "brewCoffee_3":
-                return device.brewCoffee(3).equals("success") ? device.toString() : "skip";
+                return device.brewCoffee(3).equals("success");
             default:
-                return device.toString();
-        }
-    }
-
-    private static void generateGraph(Set<Edge> edges) {
-        CoffeeMachine device = new CoffeeMachine();
-        String initState = device.toString();
-        String initSystemState = device.toSystemStateString();
-        stateTransitions.put(initSystemState, new HashSet<>());
-
-        exploreState(initState, initSystemState, edges);
-    }
-
-    private static void exploreState(String state, String systemState, Set<Edge> edges) {
-        List<String> apis = getAllPossibleAPIs();
-        for (String api : apis) {
-            CoffeeMachine currentCM = CoffeeMachine.fromString(state);
-            String nextState = executeApi(api, currentCM);
-            if (!nextState.equals("skip")){
-                CoffeeMachine nextCM = CoffeeMachine.fromString(nextState);
-                String nextSystemState = nextCM.toSystemStateString();
-                Edge edge = new Edge(systemState, nextSystemState, api);
-                edges.add(edge);
-
-                int temp = 0;
-                while (systemState.equals(nextSystemState)) {
-                    if (state.equals(nextState)) {
-//                    LOGGER.info("Api: " + api);
-//                    LOGGER.info("Current: " + state);
-//                    LOGGER.info("Next: " + nextState);
-//                    LOGGER.info("State is the same, breaking.");
-                        break;
-                    }else {
-                        String source = nextSystemState;
-                        String _nextState = executeApi(api, nextCM);
-                        nextCM = CoffeeMachine.fromString(_nextState);
-                        String target = nextCM.toSystemStateString();
-                        Edge _edge = new Edge(source, target, api);
-                        edges.add(_edge);
-                        temp++;
-                        if (temp>MAX_MODE) {
-//                        LOGGER.info("[MAX] State is the same, breaking.");
-                            break;
-                        }
-                    }
-                }
-
-                if (!stateTransitions.containsKey(nextSystemState)) {
-                    stateTransitions.put(nextSystemState, new HashSet<>());
-                    exploreState(nextCM.toString(), nextSystemState, edges);
-                }
-
-                stateTransitions.get(systemState).add(api);
-            }
+                return true;
         }
     }
 
@@ -119,87 +64,11 @@ public class CoffeeMachine_Model {
         long startTime = System.nanoTime(); // start time
         Graph<Object, Object> userGraph = new Graph<>(true,true,false);
 
-        Set<Edge> edges = new HashSet<>();
-        int[] sizeHistory = new int[20];
-        int historyIndex = 0;
-        Set<String> nodesSet = new TreeSet<>();
-        Set<String> nodeOrderSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        Map<String, String> nodeNumbers = new HashMap<>();
-        int sumEdgeLast;
-
-        Set<Edge> final_Edges = new HashSet<>();
-
-        for (int i = 0; i < 100; i++) {
-            Set<Edge> _temp = new HashSet<>();
-            CoffeeMachine_Model test = new CoffeeMachine_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-        }
-
-        int iteration = 0;
-        for (int i = 101; i < 9999; i++) {
-            LOGGER.info("Iteration: " + i);
-            Set<Edge> _temp = new HashSet<>();
-            CoffeeMachine_Model test = new CoffeeMachine_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-
-            for (Edge edge: edges){
-                String source = edge.getSource();
-                String target = edge.getTarget();
-                nodesSet.add(source);
-                nodesSet.add(target);
-            }
-
-            nodeOrderSet.addAll(nodesSet);
-
-            int nodeCount = 0;
-            for (String node : nodeOrderSet) {
-                String nodeNumber = "S" + nodeCount;
-                nodeNumbers.put(node, nodeNumber);
-                nodeCount++;
-            }
-
-            int sumEdge = 0;
-            for (String node : nodeNumbers.keySet()) {
-                String nodeNumber = nodeNumbers.get(node);
-//                LOGGER.info("Node: " + nodeNumber);
-//                LOGGER.info("State: " + node);
-//
-//                LOGGER.info("OutEdges:");
-                Set<String> visitedApis = new HashSet<>();
-                int temp = 0;
-                for (Edge edge : edges) {
-                    if (edge.getSource().equals(node)) {
-                        String target = edge.getTarget();
-                        String api = edge.getApi();
-                        String targetAndApi = target + " " + api;
-                        if (!visitedApis.contains(targetAndApi)) {
-//                            LOGGER.info("- " + nodeNumbers.get(target) + ", API = \"" + api + "\" + " + " " + target);
-                            visitedApis.add(targetAndApi);
-                            temp++;
-                        }
-                    }
-                }
-//                System.out.println();
-                sumEdge += temp;
-            }
-
-            // 输出节点总数
-            LOGGER.info("Node Count: " + nodeCount);
-            LOGGER.info("Sum Edge: " + sumEdge);
-
-            sizeHistory[historyIndex] = sumEdge;
-            historyIndex = (historyIndex + 1) % 20;
-            LOGGER.info("[History]: " + Arrays.toString(sizeHistory));
-            LOGGER.info("------------------------");
-//            LOGGER.info("[Current]: " + edges.size());
-
-            if (checkSizeConsistency(sizeHistory)) {
-                break;
-            }
-            iteration = i+1;
-        }
+        // Brewing is random: explore at least 100 rounds, then stop once 20 rounds add no edge
+        LearnerEngine.Learned learned = ENGINE.learn(100, 20, 9999);
+        Set<Edge> edges = learned.getEdges();
+        Set<String> nodesSet = learned.getNodes();
+        int iteration = learned.getRounds();
 
         LOGGER.info("\n\n\n\n------------------------");
         LOGGER.info("[Finished generating graph]");
@@ -269,19 +138,5 @@ public class CoffeeMachine_Model {
 
     }
 
-    private static boolean checkSizeConsistency(int[] sizeHistory) {
-        if (sizeHistory[0] == 0) {
-            return false;
-        }
-
-        int size = sizeHistory[0];
-        for (int i = 1; i < sizeHistory.length; i++) {
-            if (sizeHistory[i] != size) {
-                return false;
-            }
-        }
-
-        return true;
-    }
 
 }
@@ -14,11 +14,9 @@ import static MOCO.Utils.saveEdgesToFile;
 
 public class Gateway_Model {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static Map<String, Set<String>> stateTransitions;
 
-    public Gateway_Model() {
-        stateTransitions = new HashMap<>();
-    }
+    private static final LearnerEngine<Gateway> ENGINE = new LearnerEngine<>(getAllPossibleAPIs(), Gateway::new,
+            Gateway::copy, Gateway::systemStateKey, Gateway::toSystemString, Gateway_Model::executeApi);
 
     private static List<String> getAllPossibleAPIs() {
         List<String> apis = new ArrayList<>();
@@ -32,125 +30,35 @@ public class Gateway_Model {
         return apis;
     }
 
-    private static String executeApi(String api, Gateway gateway) {
+    private static boolean executeApi(String api, Gateway gateway) {
         switch (api) {
             case "turnLightOn":
-                return gateway.turnLightOn().equals("success") ? gateway.toString() : "skip";
+                return gateway.turnLightOn().equals("success");
             case "turnLightOff":
-                return gateway.turnLightOff().equals("success") ? gateway.toString() : "skip";
+                return gateway.turnLightOff().equals("success");
             case "setLightBrightness":
-                return gateway.setLightBrightness(50).equals("success") ? gateway.toString() : "skip";
+                return gateway.setLightBrightness(50).equals("success");
             case "turnAlarmOn":
-                return gateway.turnAlarmOn().equals("success") ? gateway.toString() : "skip";
+                return gateway.turnAlarmOn().equals("success");
             case "turnAlarmOff":
-                return gateway.turnAlarmOff().equals("success") ? gateway.toString() : "skip";
+                return gateway.turnAlarmOff().equals("success");
             case "addDevice":
-                return gateway.addDevice("device").equals("success") ? gateway.toString() : "skip";
+                return gateway.addDevice("device").equals("success");
             case "removeDevice":
-                return gateway.removeDevice("device").equals("success") ? gateway.toString() : "skip";
+                return gateway.removeDevice("device").equals("success");
             default:
-                return gateway.toString();
-        }
-    }
-
-    private static void generateGraph(Set<Edge> edges){
-        Gateway device = new Gateway();
-        String initState = device.toString();
-        String initSystemState = device.toSystemString();
-        stateTransitions.put(initSystemState, new HashSet<>());
-
-        exploreState(initState, initSystemState, edges);
-    }
-
-    private static void exploreState(String state, String systemState, Set<Edge> edges){
-        List<String> apis = getAllPossibleAPIs();
-
-        for (String api : apis) {
-            Gateway currentDevice = Gateway.fromString(state);
-            String nextState = executeApi(api, currentDevice);
-            if (!nextState.equals("skip")){
-                Gateway nextWM = Gateway.fromString(nextState);
-                String nextSystemState = nextWM.toSystemString();
-                Edge edge = new Edge(systemState, nextSystemState, api);
-                edges.add(edge);
-
-                if (!stateTransitions.containsKey(nextSystemState)) {
-                    stateTransitions.put(nextSystemState, new HashSet<>());
-                    exploreState(nextWM.toString(), nextSystemState, edges);
-                }
-
-                stateTransitions.get(systemState).add(api);
-
-            }
+                return true;
         }
     }
 
     public static void main(String[] args) {
         long startTime = System.nanoTime();
         Graph<Object, Object> userGraph = new Graph<>(true,true,false);
-        Set<Edge> edges = new HashSet<>();
-        int[] sizeHistory = new int[20];
-        int historyIndex = 0;
-        Set<String> nodesSet = new TreeSet<>();
-        Set<String> nodeOrderSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        Map<String, String> nodeNumbers = new HashMap<>();
-        int sumEdgeLast;
-
-        Set<Edge> final_Edges = new HashSet<>();
-
-        int iteration = 0;
-        for (int i = 0; i < 2; i++) {
-            LOGGER.info("Iteration: " + iteration++);
-            Set<Edge> _temp = new HashSet<>();
-            Gateway_Model test = new Gateway_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-        }
-
-        for (Edge edge: edges){
-            String source = edge.getSource();
-            String target = edge.getTarget();
-            nodesSet.add(source);
-            nodesSet.add(target);
-        }
-
-        nodeOrderSet.addAll(nodesSet);
-
-        int nodeCount = 0;
-        for (String node : nodeOrderSet) {
-            String nodeNumber = "S" + nodeCount;
-            nodeNumbers.put(node, nodeNumber);
-            nodeCount++;
-        }
-
-        int sumEdge = 0;
-        for (String node : nodeNumbers.keySet()) {
-            String nodeNumber = nodeNumbers.get(node);
-            Set<String> visitedApis = new HashSet<>();
-            int temp = 0;
-            for (Edge edge : edges) {
-                if (edge.getSource().equals(node)) {
-                    String target = edge.getTarget();
-                    String api = edge.getApi();
-                    String targetAndApi = target + " " + api;
-                    if (!visitedApis.contains(targetAndApi)) {
-//                            LOGGER.info("- " + nodeNumbers.get(target) + ", API = \"" + api + "\" + " + " " + target);
-                        visitedApis.add(targetAndApi);
-                        temp++;
-                    }
-                }
-            }
-//                System.out.println();
-            sumEdge += temp;
-        }
-
-        LOGGER.info("Node Count: " + nodeCount);
-        LOGGER.info("Sum Edge: " + sumEdge);
-
-        sizeHistory[historyIndex] = sumEdge;
-        historyIndex = (historyIndex + 1) % 20;
-        LOGGER.info("[History]: " + Arrays.toString(sizeHistory));
-        LOGGER.info("------------------------");
+        // Deterministic device: a second round without a new edge means the model is complete
+        LearnerEngine.Learned learned = ENGINE.learn(1, 1, 2);
+        Set<Edge> edges = learned.getEdges();
+        Set<String> nodesSet = learned.getNodes();
+        int nodeCount = nodesSet.size();
 
         LOGGER.info("\n\n\n\n------------------------");
         LOGGER.info("[Finished generating graph]");
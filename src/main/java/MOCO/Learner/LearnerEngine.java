@@ -0,0 +1,234 @@
+package MOCO.Learner;
+
+import MOCO.Edge;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * State-space exploration shared by the device learners. Starting from a fresh device,
+ * every API is tried on a copy of the device in each newly discovered state. The frontier
+ * is explored in parallel on a {@link ForkJoinPool}: each new state is a task, visited
+ * states and edges are kept in concurrent sets, so a state is explored once and an edge
+ * recorded once without locking. Devices are copied structurally and states compared by
+ * packed key, so nothing is formatted or parsed while exploring.
+ *
+ * @param <D> virtual device type
+ */
+public class LearnerEngine<D> {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ForkJoinPool POOL = new ForkJoinPool(Integer.getInteger("moco.learner.threads", Runtime.getRuntime().availableProcessors()));
+
+    private final List<String> apis;
+    private final Supplier<D> initial;
+    private final UnaryOperator<D> copy;
+    private final ToLongFunction<D> systemKey;
+    private final Function<D, String> systemState;
+    private final BiPredicate<String, D> execute;
+    private final int repeatLimit;
+    private final ToLongFunction<D> concreteKey;
+
+    /**
+     * @param apis APIs to try in every state
+     * @param initial creates a device in its initial state
+     * @param copy copies a device, so trying an API leaves the explored state untouched
+     * @param systemKey packed abstract state of a device; equal keys mean the same node
+     * @param systemState abstract state of a device, i.e. a node of the model; formatted
+     *                    once per node found
+     * @param execute executes an API on a device; false if the device refused it
+     */
+    public LearnerEngine(List<String> apis, Supplier<D> initial, UnaryOperator<D> copy, ToLongFunction<D> systemKey,
+                         Function<D, String> systemState, BiPredicate<String, D> execute) {
+        this(apis, initial, copy, systemKey, systemState, execute, 0, null);
+    }
+
+    /**
+     * @param repeatLimit when an API changes the device but not its abstract state, execute
+     *                    it up to repeatLimit + 1 more times to uncover the edges it leads to
+     *                    once hidden values run out, e.g. a coffee machine's water volume
+     * @param concreteKey packed full state of a device, used to tell whether an API changed it
+     */
+    public LearnerEngine(List<String> apis, Supplier<D> initial, UnaryOperator<D> copy, ToLongFunction<D> systemKey,
+                         Function<D, String> systemState, BiPredicate<String, D> execute, int repeatLimit,
+                         ToLongFunction<D> concreteKey) {
+        this.apis = new ArrayList<>(apis);
+        this.initial = initial;
+        this.copy = copy;
+        this.systemKey = systemKey;
+        this.systemState = systemState;
+        this.execute = execute;
+        this.repeatLimit = repeatLimit;
+        this.concreteKey = concreteKey;
+    }
+
+    /**
+     * Explore the state space once from the initial state. States are tracked by key while
+     * exploring; edges are turned into strings once at the end.
+     * @return edges found, between abstract states
+     */
+    public Set<Edge> explore() {
+        Set<Long> visited = ConcurrentHashMap.newKeySet();
+        Map<Long, String> names = new ConcurrentHashMap<>();
+        Set<KeyEdge> keyEdges = ConcurrentHashMap.newKeySet();
+        D device = initial.get();
+        long key = systemKey.applyAsLong(device);
+        visited.add(key);
+        names.put(key, systemState.apply(device));
+        POOL.invoke(new ExploreTask(device, key, visited, names, keyEdges));
+
+        Set<Edge> edges = new HashSet<>();
+        for (KeyEdge edge : keyEdges) {
+            edges.add(new Edge(names.get(edge.source), names.get(edge.target), apis.get(edge.api)));
+        }
+        return edges;
+    }
+
+    /**
+     * Explore repeatedly until the model converges: no explore has added a new edge for
+     * stableRounds rounds in a row. Edges and nodes are accumulated as each round's edges
+     * are merged, so the cost of a round does not grow with the size of the model.
+     * @param minRounds rounds to explore before convergence is checked, for learners whose
+     *                  devices behave randomly
+     * @param stableRounds rounds in a row without a new edge that end learning
+     * @param maxRounds rounds after which learning ends even if the model has not converged
+     * @return learned model
+     */
+    public Learned learn(int minRounds, int stableRounds, int maxRounds) {
+        Learned learned = new Learned();
+        int stable = 0;
+        while (learned.rounds < maxRounds) {
+            int newEdges = 0;
+            for (Edge edge : explore()) {
+                if (learned.edges.add(edge)) {
+                    learned.nodes.add(edge.getSource());
+                    learned.nodes.add(edge.getTarget());
+                    newEdges++;
+                }
+            }
+            learned.rounds++;
+            stable = newEdges == 0 ? stable + 1 : 0;
+            LOGGER.info("Iteration: " + learned.rounds + ", Node Count: " + learned.nodes.size() + ", Sum Edge: " + learned.edges.size()
+                    + ", New Edge: " + newEdges);
+            if (learned.rounds >= minRounds && stable >= stableRounds) {
+                break;
+            }
+        }
+        return learned;
+    }
+
+    /**
+     * Edges and nodes accumulated over the rounds of {@link #learn(int, int, int)}.
+     */
+    public static class Learned {
+        private final Set<Edge> edges = new HashSet<>();
+        private final Set<String> nodes = new TreeSet<>();
+        private int rounds;
+
+        public Set<Edge> getEdges() {
+            return edges;
+        }
+
+        /**
+         * @return abstract states, in natural order
+         */
+        public Set<String> getNodes() {
+            return nodes;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+    }
+
+    private class ExploreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final D device;
+        private final long state;
+        private final Set<Long> visited;
+        private final Map<Long, String> names;
+        private final Set<KeyEdge> edges;
+
+        ExploreTask(D device, long state, Set<Long> visited, Map<Long, String> names, Set<KeyEdge> edges) {
+            this.device = device;
+            this.state = state;
+            this.visited = visited;
+            this.names = names;
+            this.edges = edges;
+        }
+
+        @Override
+        protected void compute() {
+            List<ExploreTask> frontier = new ArrayList<>();
+            for (int api = 0; api < apis.size(); api++) {
+                D next = copy.apply(device);
+                if (!execute.test(apis.get(api), next)) {
+                    continue;
+                }
+                long nextState = systemKey.applyAsLong(next);
+                edges.add(new KeyEdge(state, nextState, api));
+                name(nextState, next);
+
+                if (repeatLimit > 0 && state == nextState && concreteKey.applyAsLong(device) != concreteKey.applyAsLong(next)) {
+                    for (int i = 0; i <= repeatLimit && execute.test(apis.get(api), next); i++) {
+                        long repeated = systemKey.applyAsLong(next);
+                        edges.add(new KeyEdge(nextState, repeated, api));
+                        name(repeated, next);
+                    }
+                }
+
+                if (visited.add(nextState)) {
+                    frontier.add(new ExploreTask(next, nextState, visited, names, edges));
+                }
+            }
+            invokeAll(frontier);
+        }
+
+        // Format a state the first time it is reached
+        private void name(long key, D state) {
+            if (!names.containsKey(key)) {
+                names.putIfAbsent(key, systemState.apply(state));
+            }
+        }
+    }
+
+    private static final class KeyEdge {
+        private final long source;
+        private final long target;
+        private final int api;
+
+        KeyEdge(long source, long target, int api) {
+            this.source = source;
+            this.target = target;
+            this.api = api;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KeyEdge)) {
+                return false;
+            }
+            KeyEdge edge = (KeyEdge) o;
+            return source == edge.source && target == edge.target && api == edge.api;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Long.hashCode(source) + Long.hashCode(target)) + api;
+        }
+    }
+}
@@ -14,11 +14,9 @@ import static MOCO.Utils.saveEdgesToFile;
 
 public class VideoCamera_Model {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static Map<String, Set<String>> stateTransitions;
 
-    public VideoCamera_Model() {
-        stateTransitions = new HashMap<>();
-    }
+    private static final LearnerEngine<VideoCamera> ENGINE = new LearnerEngine<>(getAllPossibleAPIs(), VideoCamera::new,
+            VideoCamera::copy, VideoCamera::systemStateKey, VideoCamera::toSystemString, VideoCamera_Model::executeApi);
 
     private static List<String> getAllPossibleAPIs() {
         List<String> apis = new ArrayList<>();
@@ -45,151 +43,61 @@ public class VideoCamera_Model {
         return apis;
     }
 
-    private static String executeApi(String api, VideoCamera videoCamera){
+    private static boolean executeApi(String api, VideoCamera videoCamera){
         switch (api) {
             case "turnOn":
-                return videoCamera.turnOn().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOn().equals("success");
             case "turnOff":
-                return videoCamera.turnOff().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOff().equals("success");
             case "turnOnMotionRecord":
-                return videoCamera.turnOnMotionRecord().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnMotionRecord().equals("success");
             case "turnOffMotionRecord":
-                return videoCamera.turnOffMotionRecord().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffMotionRecord().equals("success");
             case "turnOnLight":
-                return videoCamera.turnOnLight().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnLight().equals("success");
             case "turnOffLight":
-                return videoCamera.turnOffLight().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffLight().equals("success");
             case "turnOnFullColor":
-                return videoCamera.turnOnFullColor().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnFullColor().equals("success");
             case "turnOffFullColor":
-                return videoCamera.turnOffFullColor().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffFullColor().equals("success");
             case "turnOnFlip":
-                return videoCamera.turnOnFlip().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnFlip().equals("success");
             case "turnOffFlip":
-                return videoCamera.turnOffFlip().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffFlip().equals("success");
             case "turnOnImproveProgram":
-                return videoCamera.turnOnImproveProgram().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnImproveProgram().equals("success");
             case "turnOffImproveProgram":
-                return videoCamera.turnOffImproveProgram().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffImproveProgram().equals("success");
             case "turnOnWdr":
-                return videoCamera.turnOnWdr().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnWdr().equals("success");
             case "turnOffWdr":
-                return videoCamera.turnOffWdr().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffWdr().equals("success");
             case "turnOnTrack":
-                return videoCamera.turnOnTrack().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOnTrack().equals("success");
             case "turnOffTrack":
-                return videoCamera.turnOffTrack().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffTrack().equals("success");
             case "turnOffWatermark":
-                return videoCamera.turnOffWatermark().equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.turnOffWatermark().equals("success");
             case "setMaxClient":
-                return videoCamera.setMaxClient(2).equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.setMaxClient(2).equals("success");
             case "setNightMode":
-                return videoCamera.setNightMode(2).equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.setNightMode(2).equals("success");
             case "setMiniLevel":
-                return videoCamera.setMiniLevel(2).equals("success") ? videoCamera.toString() : "skip";
+                return videoCamera.setMiniLevel(2).equals("success");
             default:
-                return videoCamera.toString();
-        }
-    }
-
-    private static void generateGraph(Set<Edge> edges){
-        VideoCamera device = new VideoCamera();
-        String initState = device.toString();
-        String initSystemState = device.toSystemString();
-        stateTransitions.put(initSystemState, new HashSet<>());
-
-        exploreState(initState, initSystemState, edges);
-    }
-
-    private static void exploreState(String state, String systemState, Set<Edge> edges){
-        List<String> apis = getAllPossibleAPIs();
-
-        for (String api : apis) {
-            VideoCamera currentDevice = VideoCamera.fromString(state);
-            String nextState = executeApi(api, currentDevice);
-            if (!nextState.equals("skip")){
-                VideoCamera nextWM = VideoCamera.fromString(nextState);
-                String nextSystemState = nextWM.toSystemString();
-                Edge edge = new Edge(systemState, nextSystemState, api);
-                edges.add(edge);
-
-                if (!stateTransitions.containsKey(nextSystemState)) {
-                    stateTransitions.put(nextSystemState, new HashSet<>());
-                    exploreState(nextWM.toString(), nextSystemState, edges);
-                }
-
-                stateTransitions.get(systemState).add(api);
-
-            }
+                return true;
         }
     }
 
     public static void main(String[] args) {
         long startTime = System.nanoTime();
         Graph<Object, Object> userGraph = new Graph<>(true,true,false);
-        Set<Edge> edges = new HashSet<>();
-        int[] sizeHistory = new int[20];
-        int historyIndex = 0;
-        Set<String> nodesSet = new TreeSet<>();
-        Set<String> nodeOrderSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        Map<String, String> nodeNumbers = new HashMap<>();
-        int sumEdgeLast;
-
-        Set<Edge> final_Edges = new HashSet<>();
-
-        int iteration = 0;
-        for (int i = 0; i < 2; i++) {
-            LOGGER.info("Iteration: " + iteration++);
-            Set<Edge> _temp = new HashSet<>();
-            VideoCamera_Model test = new VideoCamera_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-        }
-
-        for (Edge edge: edges){
-            String source = edge.getSource();
-            String target = edge.getTarget();
-            nodesSet.add(source);
-            nodesSet.add(target);
-        }
-
-        nodeOrderSet.addAll(nodesSet);
-
-        int nodeCount = 0;
-        for (String node : nodeOrderSet) {
-            String nodeNumber = "S" + nodeCount;
-            nodeNumbers.put(node, nodeNumber);
-            nodeCount++;
-        }
-
-        int sumEdge = 0;
-        for (String node : nodeNumbers.keySet()) {
-            String nodeNumber = nodeNumbers.get(node);
-            Set<String> visitedApis = new HashSet<>();
-            int temp = 0;
-            for (Edge edge : edges) {
-                if (edge.getSource().equals(node)) {
-                    String target = edge.getTarget();
-                    String api = edge.getApi();
-                    String targetAndApi = target + " " + api;
-                    if (!visitedApis.contains(targetAndApi)) {
-//                            LOGGER.info("- " + nodeNumbers.get(target) + ", API = \"" + api + "\" + " + " " + target);
-                        visitedApis.add(targetAndApi);
-                        temp++;
-                    }
-                }
-            }
-            sumEdge += temp;
-        }
-
-        LOGGER.info("Node Count: " + nodeCount);
-        LOGGER.info("Sum Edge: " + sumEdge);
-
-        sizeHistory[historyIndex] = sumEdge;
-        historyIndex = (historyIndex + 1) % 20;
-        LOGGER.info("[History]: " + Arrays.toString(sizeHistory));
-        LOGGER.info("------------------------");
-//            LOGGER.info("[Current]: " + edges.size());
+        // Deterministic device: a second round without a new edge means the model is complete
+        LearnerEngine.Learned learned = ENGINE.learn(1, 1, 2);
+        Set<Edge> edges = learned.getEdges();
+        Set<String> nodesSet = learned.getNodes();
+        int nodeCount = nodesSet.size();
 
         LOGGER.info("\n\n\n\n------------------------");
         LOGGER.info("[Finished generating graph]");
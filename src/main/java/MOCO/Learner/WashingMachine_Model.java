@@ -14,11 +14,9 @@ import static MOCO.Utils.saveEdgesToFile;
 
 public class WashingMachine_Model {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static Map<String, Set<String>> stateTransitions;
 
-    public WashingMachine_Model() {
-        stateTransitions = new HashMap<>();
-    }
+    private static final LearnerEngine<WashingMachine> ENGINE = new LearnerEngine<>(getAllPossibleAPIs(), WashingMachine::new,
+            WashingMachine::copy, WashingMachine::systemStateKey, WashingMachine::toString, WashingMachine_Model::executeApi);
 
     private static List<String> getAllPossibleAPIs() {
         List<String> apis = new ArrayList<>();
@@ -34,134 +32,39 @@ public class WashingMachine_Model {
         return apis;
     }
 
-    private static String executeApi(String api, WashingMachine wm){
+    private static boolean executeApi(String api, WashingMachine wm){
         switch (api) {
             case "turnOn":
-                return wm.turnOn().equals("success") ? wm.toString() : "skip";
+                return wm.turnOn().equals("success");
             case "turnOff":
-                return wm.turnOff().equals("success") ? wm.toString() : "skip";
+                return wm.turnOff().equals("success");
             case "openDoor":
-                return wm.openDoor().equals("success") ? wm.toString() : "skip";
+                return wm.openDoor().equals("success");
             case "closeDoor":
-                return wm.closeDoor().equals("success") ? wm.toString() : "skip";
+                return wm.closeDoor().equals("success");
             case "fillWater":
-                return wm.fillWater().equals("success") ? wm.toString() : "skip";
+                return wm.fillWater().equals("success");
             case "startWashing":
-                return wm.startWashing().equals("success") ? wm.toString() : "skip";
+                return wm.startWashing().equals("success");
             case "startRinsing":
-                return wm.startRinsing().equals("success") ? wm.toString() : "skip";
+                return wm.startRinsing().equals("success");
             case "startSpinning":
-                return wm.startSpinning().equals("success") ? wm.toString() : "skip";
+                return wm.startSpinning().equals("success");
             case "stop":
-                return wm.stop().equals("success") ? wm.toString() : "skip";
+                return wm.stop().equals("success");
             default:
-                return wm.toString();
-        }
-    }
-
-    private static void generateGraph(Set<Edge> edges){
-        WashingMachine device = new WashingMachine();
-        String initState = device.toString();
-        String initSystemState = device.toString();
-        stateTransitions.put(initSystemState, new HashSet<>());
-
-        exploreState(initState, initSystemState, edges);
-    }
-
-    private static void exploreState(String state, String systemState, Set<Edge> edges){
-        List<String> apis = getAllPossibleAPIs();
-
-        for (String api : apis) {
-            WashingMachine currentDevice = WashingMachine.fromString(state);
-            String nextState = executeApi(api, currentDevice);
-            if (!nextState.equals("skip")){
-                WashingMachine nextWM = WashingMachine.fromString(nextState);
-                String nextSystemState = nextWM.toString();
-                Edge edge = new Edge(systemState, nextSystemState, api);
-                edges.add(edge);
-
-                if (!stateTransitions.containsKey(nextSystemState)) {
-                    stateTransitions.put(nextSystemState, new HashSet<>());
-                    exploreState(nextWM.toString(), nextSystemState, edges);
-                }
-
-                stateTransitions.get(systemState).add(api);
-
-            }
+                return true;
         }
     }
 
     public static void main(String[] args) {
         long startTime = System.nanoTime();
         Graph<Object, Object> userGraph = new Graph<>(true,true,false);
-        Set<Edge> edges = new HashSet<>();
-        int[] sizeHistory = new int[20];
-        int historyIndex = 0;
-        Set<String> nodesSet = new TreeSet<>();
-        Set<String> nodeOrderSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        Map<String, String> nodeNumbers = new HashMap<>();
-        int sumEdgeLast;
-
-        Set<Edge> final_Edges = new HashSet<>();
-
-        int iteration = 0;
-        for (int i = 0; i < 2; i++) {
-            LOGGER.info("Iteration: " + iteration++);
-            Set<Edge> _temp = new HashSet<>();
-            WashingMachine_Model test = new WashingMachine_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-        }
-
-        for (Edge edge: edges){
-            String source = edge.getSource();
-            String target = edge.getTarget();
-            nodesSet.add(source);
-            nodesSet.add(target);
-        }
-
-        nodeOrderSet.addAll(nodesSet);
-
-        int nodeCount = 0;
-        for (String node : nodeOrderSet) {
-            String nodeNumber = "S" + nodeCount;
-            nodeNumbers.put(node, nodeNumber);
-            nodeCount++;
-        }
-
-        int sumEdge = 0;
-        for (String node : nodeNumbers.keySet()) {
-            String nodeNumber = nodeNumbers.get(node);
-//                LOGGER.info("Node: " + nodeNumber);
-//                LOGGER.info("State: " + node);
-//
-//                LOGGER.info("OutEdges:");
-            Set<String> visitedApis = new HashSet<>();
-            int temp = 0;
-            for (Edge edge : edges) {
-                if (edge.getSource().equals(node)) {
-                    String target = edge.getTarget();
-                    String api = edge.getApi();
-                    String targetAndApi = target + " " + api;
-                    if (!visitedApis.contains(targetAndApi)) {
-//                            LOGGER.info("- " + nodeNumbers.get(target) + ", API = \"" + api + "\" + " + " " + target);
-                        visitedApis.add(targetAndApi);
-                        temp++;
-                    }
-                }
-            }
-//                System.out.println();
-            sumEdge += temp;
-        }
-
-        LOGGER.info("Node Count: " + nodeCount);
-        LOGGER.info("Sum Edge: " + sumEdge);
-
-        sizeHistory[historyIndex] = sumEdge;
-        historyIndex = (historyIndex + 1) % 20;
-        LOGGER.info("[History]: " + Arrays.toString(sizeHistory));
-        LOGGER.info("------------------------");
-//            LOGGER.info("[Current]: " + edges.size());
+        // Deterministic device: a second round without a new edge means the model is complete
+        LearnerEngine.Learned learned = ENGINE.learn(1, 1, 2);
+        Set<Edge> edges = learned.getEdges();
+        Set<String> nodesSet = learned.getNodes();
+        int nodeCount = nodesSet.size();
 
         LOGGER.info("\n\n\n\n------------------------");
         LOGGER.info("[Finished generating graph]");
@@ -14,11 +14,9 @@ import static MOCO.Utils.saveEdgesToFile;
 
 public class Yeelight_Model {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static Map<String, Set<String>> stateTransitions;
 
-    public Yeelight_Model() {
-        stateTransitions = new HashMap<>();
-    }
+    private static final LearnerEngine<Yeelight> ENGINE = new LearnerEngine<>(getAllPossibleAPIs(), Yeelight::new,
+            Yeelight::copy, Yeelight::systemStateKey, Yeelight::toSystemString, Yeelight_Model::executeApi);
 
     private static List<String> getAllPossibleAPIs() {
         List<String> apis = new ArrayList<>();
@@ -29,120 +27,31 @@ public class Yeelight_Model {
         return apis;
     }
 
-    private static String executeApi(String api, Yeelight yeelight) {
+    private static boolean executeApi(String api, Yeelight yeelight) {
         switch (api) {
             case "turnOn":
-                return yeelight.turnOn().equals("success") ? yeelight.toString() : "skip";
+                return yeelight.turnOn().equals("success");
             case "turnOff":
-                return yeelight.turnOff().equals("success") ? yeelight.toString() : "skip";
+                return yeelight.turnOff().equals("success");
             case "setBrightness":
-                return yeelight.setBrightness(50).equals("success") ? yeelight.toString() : "skip";
+                return yeelight.setBrightness(50).equals("success");
             case "setRGB":
-                return yeelight.setRGB(50, 50, 50).equals("success") ? yeelight.toString() : "skip";
+                return yeelight.setRGB(50, 50, 50).equals("success");
             case "setMode":
-                return yeelight.setColorMode(1).equals("success") ? yeelight.toString() : "skip";
+                return yeelight.setColorMode(1).equals("success");
             default:
-                return yeelight.toString();
-        }
-    }
-
-    private static void generateGraph(Set<Edge> edges){
-        Yeelight device = new Yeelight();
-        String initState = device.toString();
-        String initSystemState = device.toSystemString();
-        stateTransitions.put(initSystemState, new HashSet<>());
-
-//        LOGGER.info("Initial state: " + initState + " System state: " + initSystemState);
-        exploreState(initState, initSystemState, edges);
-    }
-
-    private static void exploreState(String state, String systemState, Set<Edge> edges){
-        List<String> apis = getAllPossibleAPIs();
-
-        for (String api : apis) {
-            Yeelight currentDevice = Yeelight.fromString(state);
-            String nextState = executeApi(api, currentDevice);
-            if (!nextState.equals("skip")){
-                Yeelight nextWM = Yeelight.fromString(nextState);
-                String nextSystemState = nextWM.toSystemString();
-                Edge edge = new Edge(systemState, nextSystemState, api);
-                edges.add(edge);
-
-                if (!stateTransitions.containsKey(nextSystemState)) {
-                    stateTransitions.put(nextSystemState, new HashSet<>());
-                    exploreState(nextWM.toString(), nextSystemState, edges);
-                }
-
-                stateTransitions.get(systemState).add(api);
-
-            }
+                return true;
         }
     }
 
     public static void main(String[] args) {
         long startTime = System.nanoTime(); // 获取开始时间
         Graph<Object, Object> userGraph = new Graph<>(true,true,false);
-        Set<Edge> edges = new HashSet<>();
-        int[] sizeHistory = new int[20];
-        int historyIndex = 0;
-        Set<String> nodesSet = new TreeSet<>();
-        Set<String> nodeOrderSet = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        // Create node numbers map
-        Map<String, String> nodeNumbers = new HashMap<>();
-
-        int iteration = 0;
-        for (int i = 0; i < 2; i++) {
-            LOGGER.info("Iteration: " + iteration++);
-            Set<Edge> _temp = new HashSet<>();
-            Yeelight_Model test = new Yeelight_Model();
-            test.generateGraph(_temp);
-            edges.addAll(_temp);
-        }
-
-        for (Edge edge: edges){
-            String source = edge.getSource();
-            String target = edge.getTarget();
-            nodesSet.add(source);
-            nodesSet.add(target);
-        }
-
-        nodeOrderSet.addAll(nodesSet);
-
-        // Count node numbers
-        int nodeCount = 0;
-        for (String node : nodeOrderSet) {
-            String nodeNumber = "S" + nodeCount;
-            nodeNumbers.put(node, nodeNumber);
-            nodeCount++;
-        }
-
-        // print out edges and apis
-        int sumEdge = 0;
-        for (String node : nodeNumbers.keySet()) {
-            Set<String> visitedApis = new HashSet<>();
-            int temp = 0;
-            for (Edge edge : edges) {
-                if (edge.getSource().equals(node)) {
-                    String target = edge.getTarget();
-                    String api = edge.getApi();
-                    String targetAndApi = target + " " + api;
-                    if (!visitedApis.contains(targetAndApi)) {
-//                            LOGGER.info("- " + nodeNumbers.get(target) + ", API = \"" + api + "\" + " + " " + target);
-                        visitedApis.add(targetAndApi);
-                        temp++;
-                    }
-                }
-            }
-            sumEdge += temp;
-        }
-
-        LOGGER.info("Node Count: " + nodeCount);
-        LOGGER.info("Sum Edge: " + sumEdge);
-
-        sizeHistory[historyIndex] = sumEdge;
-        historyIndex = (historyIndex + 1) % 20;
-        LOGGER.info("[History]: " + Arrays.toString(sizeHistory));
-        LOGGER.info("------------------------");
+        // Deterministic device: a second round without a new edge means the model is complete
+        LearnerEngine.Learned learned = ENGINE.learn(1, 1, 2);
+        Set<Edge> edges = learned.getEdges();
+        Set<String> nodesSet = learned.getNodes();
+        int nodeCount = nodesSet.size();
 
         LOGGER.info("\n\n\n\n------------------------");
         LOGGER.info("[Finished generating graph]");
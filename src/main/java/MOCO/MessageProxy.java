@@ -1,32 +1,33 @@
 package MOCO;
 
+import IoTSystem.CommandOutcome;
+import IoTSystem.DeviceRegistry;
 import IoTSystem.Message;
+import IoTSystem.PipelineMetrics;
 import IoTSystem.TaskScheduler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MessageProxy {
     private static final Logger LOGGER = LogManager.getLogger();
 
+    private static final PipelineMetrics METRICS = PipelineMetrics.shared();
+
     private TaskScheduler taskScheduler;
-    private Map<String, Set<String>> gateway_outEdgeApis;
-    private Map<String, Set<String>> light_outEdgeApis;
-    private Map<String, Set<String>> cm_outEdgeApis;
-    private Map<String, Set<String>> vc_outEdgeApis;
-    private Map<String, Set<String>> wm_outEdgeApis;
+    private ModelRegistry models;
     private boolean proxyOn;
+    // Projected state by device id
+    private final Map<String, ProjectedState> projections = new ConcurrentHashMap<>();
 
-    public MessageProxy(TaskScheduler taskScheduler, Map<String, Set<String>> gateway_outEdgeApis, Map<String, Set<String>> light_outEdgeApis, Map<String, Set<String>> cm_outEdgeApis,
-                        Map<String, Set<String>> vc_outEdgeApis, Map<String, Set<String>> wm_outEdgeApis, boolean proxyOn) {
+    public MessageProxy(TaskScheduler taskScheduler, ModelRegistry models, boolean proxyOn) {
         this.taskScheduler = taskScheduler;
-        this.gateway_outEdgeApis = gateway_outEdgeApis;
-        this.light_outEdgeApis = light_outEdgeApis;
-        this.cm_outEdgeApis = cm_outEdgeApis;
-        this.vc_outEdgeApis = vc_outEdgeApis;
-        this.wm_outEdgeApis = wm_outEdgeApis;
+        this.models = models;
         this.proxyOn = proxyOn;
     }
 
@@ -34,12 +35,170 @@ public class MessageProxy {
         this.proxyOn = proxyOn;
     }
 
+    /**
+     * Pre-check a command against the projected state of the device it is addressed to, the
+     * state the device will be in once the commands admitted before it have executed, and
+     * pass it on. An admitted command advances the projection right away.
+     * @param message command
+     * @return outcome of the command, completed by the pipeline once the projection is
+     * reconciled with it; already complete if the pre-check rejects the command or no
+     * device has its id
+     */
+    public CompletableFuture<CommandOutcome> submit(Message message) {
+        if (!proxyOn) {
+            return taskScheduler.submit(message, CommandOutcome.PreCheck.NOT_CHECKED);
+        }
+        DeviceRegistry.Device device = taskScheduler.getDevices().resolve(message);
+        if (device == null) {
+            return taskScheduler.rejectUnknownDevice(message);
+        }
+        ProjectedState projection = projection(device);
+        CompletableFuture<CommandOutcome> outcome;
+        // Hand over to the lane while holding the projection, so commands run in the order they
+        // were admitted; the journal is waited for after letting go of it
+        synchronized (projection) {
+            long start = System.nanoTime();
+            boolean admitted = projection.admit(message.getDeviceAPI());
+            METRICS.record(PipelineMetrics.Stage.PRE_CHECK, message.getDeviceType(),
+                    device.getDriver().getDispatchTable().hasApi(message.getDeviceAPI()) ? message.getDeviceAPI() : PipelineMetrics.UNKNOWN_API,
+                    System.nanoTime() - start);
+            if (!admitted) {
+                return reject(message);
+            }
+            outcome = taskScheduler.submit(device, message, CommandOutcome.PreCheck.ACCEPTED);
+        }
+        taskScheduler.awaitAccepted();
+        return reconcile(outcome, projection);
+    }
+
+    /**
+     * Check a scene, a sequence of commands to one device, against the projected state of the
+     * device in one walk over its behavior model, without submitting it.
+     * @param deviceId device
+     * @param messages commands, in order, all addressed to the device
+     * @return verdict with the index of the first command that fails, or
+     * {@link SceneResult.Status#UNKNOWN_DEVICE} if no device has the id
+     */
+    public SceneResult validateSequence(String deviceId, List<Message> messages) {
+        return scene(deviceId, messages, false);
+    }
+
+    /**
+     * Check a scene like {@link #validateSequence(String, List)} and, if the model allows all
+     * of it, submit every command; otherwise none is submitted. The projection advances over
+     * the whole scene at once.
+     * @param deviceId device
+     * @param messages commands, in order, all addressed to the device
+     * @return verdict with the outcome of each command, or the index of the first that fails
+     */
+    public SceneResult submitScene(String deviceId, List<Message> messages) {
+        return scene(deviceId, messages, true);
+    }
+
+    private SceneResult scene(String deviceId, List<Message> messages, boolean submit) {
+        DeviceRegistry.Device device = taskScheduler.getDevices().get(deviceId);
+        if (device == null) {
+            return SceneResult.unknownDevice(deviceId);
+        }
+        String[] apis = new String[messages.size()];
+        for (int i = 0; i < apis.length; i++) {
+            Message message = messages.get(i);
+            if (taskScheduler.getDevices().resolve(message) != device) {
+                return SceneResult.rejected(i, "not addressed to " + deviceId);
+            }
+            apis[i] = message.getDeviceAPI();
+        }
+        List<CompletableFuture<CommandOutcome>> outcomes = new ArrayList<>(apis.length);
+        if (submit && !proxyOn) {
+            for (Message message : messages) {
+                outcomes.add(taskScheduler.submit(message, CommandOutcome.PreCheck.NOT_CHECKED));
+            }
+            return SceneResult.accepted(outcomes);
+        }
+        ProjectedState projection = projection(device);
+        synchronized (projection) {
+            long start = System.nanoTime();
+            int failed = projection.check(apis, submit);
+            METRICS.record(PipelineMetrics.Stage.PRE_CHECK, device.getDeviceType(), "scene", System.nanoTime() - start);
+            if (failed >= 0) {
+                LOGGER.info("Scene can not be executed at the current state, failed at " + failed + ": " + messages.get(failed));
+                if (submit) {
+                    for (Message message : messages) {
+                        taskScheduler.addHistory(message, "rejected by pre-check");
+                    }
+                }
+                return SceneResult.rejected(failed, "not allowed by the behavior model: " + apis[failed]);
+            }
+            if (submit) {
+                for (Message message : messages) {
+                    outcomes.add(reconcile(taskScheduler.submit(device, message, CommandOutcome.PreCheck.ACCEPTED), projection));
+                }
+            }
+        }
+        if (submit) {
+            taskScheduler.awaitAccepted();
+        }
+        return SceneResult.accepted(outcomes);
+    }
+
+    private static CompletableFuture<CommandOutcome> reconcile(CompletableFuture<CommandOutcome> outcome, ProjectedState projection) {
+        return outcome.whenComplete((result, e) -> projection.completed(e == null && isAsProjected(result)));
+    }
+
+    /**
+     * Pre-check a command against the projected state of its device and pass it on.
+     * @param message message
+     */
+    public void addMessage(Message message) {
+        submit(message);
+    }
+
+    /**
+     * @param deviceId device
+     * @return state the device is projected to be in, "null" if it is in a state its model
+     * does not know, or null if no command has been checked for it
+     */
+    public String getProjectedState(String deviceId) {
+        ProjectedState projection = projections.get(deviceId);
+        return projection == null ? null : projection.getState();
+    }
+
+    private ProjectedState projection(DeviceRegistry.Device device) {
+        ProjectedState projection = projections.get(device.getDeviceId());
+        if (projection == null) {
+            projection = projections.computeIfAbsent(device.getDeviceId(), deviceId -> new ProjectedState(deviceId,
+                    models.automaton(device.getDeviceType()), () -> device.getDriver().twinStateKey(device.getController())));
+        }
+        return projection;
+    }
+
+    // A command that failed, or that the post-check had to retry or repair, did not move the device as projected
+    private static boolean isAsProjected(CommandOutcome outcome) {
+        if (!outcome.isExecuted()) {
+            return false;
+        }
+        CommandOutcome.PostCheck postCheck = outcome.getPostCheck();
+        return postCheck != CommandOutcome.PostCheck.RETRIED && postCheck != CommandOutcome.PostCheck.REPAIRED;
+    }
+
+    private CompletableFuture<CommandOutcome> reject(Message message) {
+        LOGGER.info("Current Msg can not be executed at the current state. " + message);
+        taskScheduler.addHistory(message, "rejected by pre-check");
+        return CompletableFuture.completedFuture(CommandOutcome.notExecuted(message, CommandOutcome.PreCheck.REJECTED, "rejected by pre-check"));
+    }
+
+    /**
+     * Pre-check a command against a state the caller read, without projection.
+     * @param message message
+     * @param currentState state of the device's twin
+     */
     public void addMessage (Message message, String currentState) {
         if (proxyOn) {
-            if (ExecutionChecker.preCheck(message, currentState, gateway_outEdgeApis, light_outEdgeApis, cm_outEdgeApis, vc_outEdgeApis, wm_outEdgeApis)){
+            if (ExecutionChecker.preCheck(message, currentState, models)){
                 taskScheduler.addMessage(message);
             }else{
                 LOGGER.info("Current Msg can not be executed at the current state. " + message);
+                taskScheduler.addHistory(message, "rejected by pre-check");
             }
         }else {
             taskScheduler.addMessage(message);
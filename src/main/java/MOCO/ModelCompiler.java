@@ -0,0 +1,159 @@
+package MOCO;
+
+import graph.Graph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Compiles learned behavior models from JSON into the binary model format of
+ * {@link BehaviorAutomaton}. Running this class compiles the binary file next to the JSON
+ * file, with a .bin extension. Models compiled on the fly go to a cache directory, set by
+ * the system property {@code moco.models.cache}, so the model directory is never written
+ * to at run time; models packaged as resources are cached the same way. Either binary file
+ * is used instead of the JSON as long as it is up to date.
+ */
+public class ModelCompiler {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final File CACHE_DIR = new File(System.getProperty("moco.models.cache",
+            new File(System.getProperty("java.io.tmpdir"), "moco-models").getPath()));
+
+    /**
+     * @param jsonFile behavior model in JSON
+     * @return the binary model file that belongs to it
+     */
+    public static File binaryFileOf(String jsonFile) {
+        String base = jsonFile.endsWith(".json") ? jsonFile.substring(0, jsonFile.length() - 5) : jsonFile;
+        return new File(base + ".bin");
+    }
+
+    /**
+     * @param jsonFile behavior model in JSON
+     * @return where {@link #load(String)} caches the binary form of the model
+     */
+    public static File cacheFileOf(String jsonFile) {
+        File json = new File(jsonFile).getAbsoluteFile();
+        // Models of the same name in different directories must not share an entry
+        return new File(CACHE_DIR, Integer.toHexString(json.getParent().hashCode()) + "-" + binaryFileOf(json.getName()).getName());
+    }
+
+    /**
+     * Compile a JSON behavior model and save its binary form.
+     * @param jsonFile behavior model in JSON
+     * @return compiled automaton
+     * @throws IOException if the binary file cannot be written
+     */
+    public static BehaviorAutomaton compile(String jsonFile) throws IOException {
+        BehaviorAutomaton automaton = BehaviorAutomaton.compile(Utils.loadGraphFromFile(jsonFile));
+        automaton.writeTo(binaryFileOf(jsonFile).toPath());
+        return automaton;
+    }
+
+    /**
+     * Load a behavior model, from its binary form if that is at least as new as the JSON
+     * file, otherwise from the JSON file, refreshing the cached binary form on the way.
+     * @param jsonFile behavior model in JSON
+     * @return automaton, empty if neither file exists
+     */
+    public static BehaviorAutomaton load(String jsonFile) {
+        File json = new File(jsonFile);
+        for (File binary : new File[]{binaryFileOf(jsonFile), cacheFileOf(jsonFile)}) {
+            if (binary.isFile() && (!json.exists() || binary.lastModified() >= json.lastModified())) {
+                try {
+                    return BehaviorAutomaton.load(binary.toPath());
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot load binary model " + binary + ", recompiling: " + e.getMessage());
+                }
+            }
+        }
+        BehaviorAutomaton automaton = BehaviorAutomaton.compile(Utils.loadGraphFromFile(jsonFile));
+        if (automaton.stateCount() > 0) {
+            cache(automaton, cacheFileOf(jsonFile));
+        }
+        return automaton;
+    }
+
+    /**
+     * Load a behavior model packaged as a JSON resource, e.g. in a jar, through the cache like
+     * {@link #load(String)} does for a file.
+     * @param json behavior model in JSON
+     * @return automaton, empty if the resource cannot be read
+     */
+    public static BehaviorAutomaton load(URL json) {
+        if ("file".equals(json.getProtocol())) {
+            try {
+                return load(Paths.get(json.toURI()).toString());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                LOGGER.warn("Cannot resolve behavior model " + json + " to a file: " + e.getMessage());
+            }
+        }
+        File cache = cacheFileOf(json);
+        try {
+            if (cache.isFile() && cache.lastModified() >= json.openConnection().getLastModified()) {
+                return BehaviorAutomaton.load(cache.toPath());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot load binary model " + cache + ", recompiling: " + e.getMessage());
+        }
+        Graph<Object, Object> graph;
+        try (Reader reader = new InputStreamReader(json.openStream(), StandardCharsets.UTF_8)) {
+            graph = Utils.loadGraph(reader);
+        } catch (IOException e) {
+            LOGGER.error("Cannot read behavior model " + json, e);
+            graph = new Graph<>(true, true, false);
+        }
+        BehaviorAutomaton automaton = BehaviorAutomaton.compile(graph);
+        if (automaton.stateCount() > 0) {
+            cache(automaton, cache);
+        }
+        return automaton;
+    }
+
+    /**
+     * @param json behavior model in JSON, packaged as a resource
+     * @return where {@link #load(URL)} caches the binary form of the model
+     */
+    public static File cacheFileOf(URL json) {
+        String location = json.toString();
+        String name = location.substring(location.lastIndexOf('/') + 1);
+        return new File(CACHE_DIR, Integer.toHexString(location.hashCode()) + "-" + binaryFileOf(name).getName());
+    }
+
+    private static void cache(BehaviorAutomaton automaton, File cache) {
+        try {
+            Files.createDirectories(CACHE_DIR.toPath());
+            automaton.writeTo(cache.toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot cache binary model " + cache + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compile the given JSON models, or every model in the model directory.
+     * @param args JSON files
+     * @throws IOException if a binary file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        String[] files = args;
+        if (files.length == 0) {
+            File[] models = new File("src/main/java/MOCO/modelFiles").listFiles((dir, name) -> name.endsWith(".json"));
+            files = new String[models == null ? 0 : models.length];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = models[i].getPath();
+            }
+        }
+        for (String file : files) {
+            BehaviorAutomaton automaton = compile(file);
+            Path binary = binaryFileOf(file).toPath();
+            LOGGER.info(file + " (" + new File(file).length() + " bytes) -> " + binary + " (" + binary.toFile().length()
+                    + " bytes), states: " + automaton.stateCount() + ", APIs: " + automaton.apiCount());
+        }
+    }
+}
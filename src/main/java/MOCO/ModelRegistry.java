@@ -0,0 +1,213 @@
+package MOCO;
+
+import IoTSystem.DeviceDriver;
+import IoTSystem.DeviceDrivers;
+import IoTSystem.DeviceTwin.CMTwin;
+import IoTSystem.DeviceTwin.WMTwin;
+import graph.CsrGraph;
+import graph.Graph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Behavior models by device type. Each model is loaded on first use and then shared by
+ * everything in the process. Models are resolved from the classpath first
+ * ({@code MOCO/modelFiles/<model>.bin} unless it is older than the {@code .json}, then the
+ * {@code .json}), then from the model directory. A JSON model is compiled once and then
+ * mapped from the binary cache of {@link ModelCompiler}. The states of a device type with a
+ * {@link DeviceDriver} are indexed by the packed state key its twins report.
+ * The model of a device type is named after it with a lower-case first letter,
+ * e.g. CoffeeMachine -&gt; coffeeMachine.
+ */
+public class ModelRegistry {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String RESOURCE_DIR = "MOCO/modelFiles/";
+    private static final String DEFAULT_DIR = "src/main/java/MOCO/modelFiles";
+    private static final ModelRegistry SHARED = new ModelRegistry(System.getProperty("moco.models.dir", DEFAULT_DIR));
+
+    private final File modelDir;
+    private final Map<String, BehaviorAutomaton> automata = new ConcurrentHashMap<>();
+    private final Map<String, CsrGraph> graphs = new ConcurrentHashMap<>();
+
+    /**
+     * @param modelDir directory searched when a model is not on the classpath
+     */
+    public ModelRegistry(String modelDir) {
+        this.modelDir = new File(modelDir);
+    }
+
+    /**
+     * @return the registry shared by the whole process, with the model directory set by
+     * the system property {@code moco.models.dir}
+     */
+    public static ModelRegistry shared() {
+        return SHARED;
+    }
+
+    public static String modelName(String deviceType) {
+        return Character.toLowerCase(deviceType.charAt(0)) + deviceType.substring(1);
+    }
+
+    /**
+     * @param deviceType device type
+     * @return compiled behavior model, empty if the device type has no model
+     */
+    public BehaviorAutomaton automaton(String deviceType) {
+        return automata.computeIfAbsent(deviceType, this::loadAutomaton);
+    }
+
+    /**
+     * Behavior graph as learned, frozen into compressed sparse row form.
+     * @param deviceType device type
+     * @return behavior graph, empty if the device type has no model
+     */
+    public CsrGraph graph(String deviceType) {
+        return graphs.computeIfAbsent(deviceType, type -> loadGraph(type).freeze());
+    }
+
+    public boolean isLoaded(String deviceType) {
+        return automata.containsKey(deviceType);
+    }
+
+    private BehaviorAutomaton loadAutomaton(String deviceType) {
+        BehaviorAutomaton automaton = findAutomaton(deviceType);
+        // Twins and devices report packed state keys, index the states by them once
+        DeviceDriver<Object> driver = DeviceDrivers.get(deviceType);
+        if (driver != null) {
+            automaton.indexStateKeys(driver::stateKeyOf);
+        }
+        return automaton;
+    }
+
+    private BehaviorAutomaton findAutomaton(String deviceType) {
+        String model = modelName(deviceType);
+        URL binary = resource(model + ".bin");
+        URL json = resource(model + ".json");
+        if (binary != null && isUpToDate(binary, json)) {
+            try {
+                return loadBinary(binary);
+            } catch (IOException e) {
+                LOGGER.warn("Cannot load binary model " + binary + ": " + e.getMessage());
+            }
+        }
+        if (json != null) {
+            return ModelCompiler.load(json);
+        }
+        File file = new File(modelDir, model + ".json");
+        if (file.isFile() || ModelCompiler.binaryFileOf(file.getPath()).isFile()) {
+            return ModelCompiler.load(file.getPath());
+        }
+        LOGGER.error("No behavior model found for " + deviceType);
+        return BehaviorAutomaton.compile(new Graph<>(true, true, false));
+    }
+
+    private Graph<Object, Object> loadGraph(String deviceType) {
+        String model = modelName(deviceType);
+        URL json = resource(model + ".json");
+        if (json != null) {
+            try (Reader reader = new InputStreamReader(json.openStream(), StandardCharsets.UTF_8)) {
+                return Utils.loadGraph(reader);
+            } catch (IOException e) {
+                LOGGER.error("Cannot read behavior model " + json, e);
+            }
+        }
+        File file = new File(modelDir, model + ".json");
+        if (file.isFile()) {
+            return Utils.loadGraphFromFile(file.getPath());
+        }
+        LOGGER.error("No behavior graph found for " + deviceType);
+        return new Graph<>(true, true, false);
+    }
+
+    private static URL resource(String name) {
+        return ModelRegistry.class.getClassLoader().getResource(RESOURCE_DIR + name);
+    }
+
+    // A binary model older than its JSON was compiled from an earlier version of the model
+    private static boolean isUpToDate(URL binary, URL json) {
+        if (json == null) {
+            return true;
+        }
+        try {
+            long jsonModified = json.openConnection().getLastModified();
+            if (binary.openConnection().getLastModified() >= jsonModified) {
+                return true;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot tell the age of binary model " + binary + ": " + e.getMessage());
+        }
+        LOGGER.warn("Ignoring binary model " + binary + ", it is older than " + json);
+        return false;
+    }
+
+    // Map models in a classes directory, copy models packaged in a jar
+    private static BehaviorAutomaton loadBinary(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return BehaviorAutomaton.load(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                bytes.write(chunk, 0, read);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+            buffer.put(bytes.toByteArray());
+            buffer.flip();
+            return BehaviorAutomaton.read(buffer, url.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        ModelRegistry registry = shared();
+        assert !registry.isLoaded("Yeelight");
+        BehaviorAutomaton light = registry.automaton("Yeelight");
+        // One shared instance per model
+        assert registry.automaton("Yeelight") == light;
+        assert light.stateCount() == 8;
+        assert registry.automaton("CoffeeMachine").stateCount() == 18;
+        assert registry.graph("Gateway").edgeCount() == 128;
+        assert registry.automaton("Toaster").stateCount() == 0;
+
+        // Once compiled, a model is mapped from the cache instead of parsed again
+        BehaviorAutomaton again = new ModelRegistry(DEFAULT_DIR).automaton("Yeelight");
+        assert again.isMapped();
+        assert again.stateCount() == light.stateCount();
+
+        // Every state is found by its packed key, and a twin reports the key of the state it takes
+        for (String type : new String[]{"CoffeeMachine", "Gateway", "Yeelight", "VideoCamera", "WashingMachine"}) {
+            BehaviorAutomaton automaton = registry.automaton(type);
+            for (int s = 0; s < automaton.stateCount(); s++) {
+                assert automaton.stateId(automaton.stateKey(s)) == s;
+            }
+        }
+        BehaviorAutomaton coffee = registry.automaton("CoffeeMachine");
+        for (int s = 0; s < coffee.stateCount(); s++) {
+            CMTwin twin = new CMTwin();
+            twin.setTargetState(coffee.stateContent(s));
+            assert coffee.stateId(twin.systemStateKey()) == coffee.stateId(twin.toSystemDeviceString());
+        }
+        BehaviorAutomaton washer = registry.automaton("WashingMachine");
+        for (int s = 0; s < washer.stateCount(); s++) {
+            WMTwin twin = new WMTwin();
+            twin.setTargetState(washer.stateContent(s));
+            assert washer.stateId(twin.systemStateKey()) == s;
+        }
+        assert !registry.automaton("Toaster").hasStateKeys();
+        LOGGER.info("Loaded models: " + registry.automata.keySet());
+    }
+}
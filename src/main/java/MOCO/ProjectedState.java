@@ -0,0 +1,154 @@
+package MOCO;
+
+import IoTSystem.DeviceTwin.CMTwin;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.function.LongSupplier;
+
+/**
+ * State one device will be in once the commands admitted for it have executed, projected
+ * through its behavior model. Each admitted command advances the projection, so a burst of
+ * commands is pre-checked in sequence without waiting for any of them to execute. While no
+ * command is in flight, and after a command that did not end as the model predicts, the
+ * projection starts again from the twin.
+ */
+class ProjectedState {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final String deviceId;
+    private final BehaviorAutomaton automaton;
+    private final LongSupplier twinStateKey;
+
+    // Guarded by this
+    private int stateId = -1;
+    private int inFlight;
+    private boolean stale = true;
+
+    /**
+     * @param deviceId device, for logging
+     * @param automaton behavior model of the device type
+     * @param twinStateKey current packed state of the device's twin, which the automaton
+     *                     is indexed by
+     */
+    ProjectedState(String deviceId, BehaviorAutomaton automaton, LongSupplier twinStateKey) {
+        this.deviceId = deviceId;
+        this.automaton = automaton;
+        this.twinStateKey = twinStateKey;
+    }
+
+    /**
+     * Admit a command if the model allows it in the projected state, and advance the projection.
+     * @param api api of the command
+     * @return true if admitted; {@link #completed(boolean)} must follow once it is done
+     */
+    synchronized boolean admit(String api) {
+        refresh();
+        int apiId = automaton.apiId(api);
+        if (!automaton.isAllowed(stateId, apiId)) {
+            return false;
+        }
+        stateId = automaton.next(stateId, apiId);
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Check a sequence of commands in one walk over the model from the projected state. The
+     * sequence is admitted as a whole or not at all.
+     * @param apis api of each command, in order
+     * @param admit whether to admit the sequence if the model allows all of it; each admitted
+     *              command must be followed by {@link #completed(boolean)}
+     * @return index of the first command the model does not allow, or -1 if it allows all
+     */
+    synchronized int check(String[] apis, boolean admit) {
+        refresh();
+        int state = stateId;
+        for (int i = 0; i < apis.length; i++) {
+            int apiId = automaton.apiId(apis[i]);
+            if (!automaton.isAllowed(state, apiId)) {
+                return i;
+            }
+            state = automaton.next(state, apiId);
+        }
+        if (admit) {
+            stateId = state;
+            inFlight += apis.length;
+        }
+        return -1;
+    }
+
+    // Start from the twin when it is all the projection has to go on
+    private void refresh() {
+        if (stale || inFlight == 0) {
+            stateId = automaton.stateId(twinStateKey.getAsLong());
+            stale = false;
+        }
+    }
+
+    /**
+     * Reconcile with the twin once an admitted command is done.
+     * @param asProjected false if the command failed or deviated from the model, so the
+     *                    projection cannot be trusted any more
+     */
+    synchronized void completed(boolean asProjected) {
+        inFlight--;
+        if (!asProjected) {
+            stale = true;
+        } else if (inFlight == 0) {
+            int actual = automaton.stateId(twinStateKey.getAsLong());
+            if (actual != stateId) {
+                LOGGER.warn("[" + deviceId + "] Projected state " + (stateId < 0 ? "null" : automaton.nodeId(stateId))
+                        + " but twin is in " + (actual < 0 ? "null" : automaton.nodeId(actual)));
+                stateId = actual;
+            }
+        }
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return projected state, or "null" if the twin is in a state the model does not know
+     */
+    synchronized String getState() {
+        return stateId < 0 ? "null" : automaton.stateContent(stateId);
+    }
+
+    public static void main(String[] args) {
+        CMTwin twin = new CMTwin();
+        String initial = twin.toSystemDeviceString();
+        ProjectedState projection = new ProjectedState("CM001", ModelRegistry.shared().automaton("CoffeeMachine"), twin::systemStateKey);
+        // The twin has not moved yet, but the projection has
+        assert projection.admit("turnOn");
+        assert projection.admit("addWater");
+        assert !projection.admit("turnOn");
+        assert projection.getInFlight() == 2;
+        assert !projection.getState().equals(initial);
+
+        // Once nothing is in flight the twin wins again
+        projection.completed(true);
+        projection.completed(true);
+        assert projection.getState().equals(initial);
+        assert !projection.admit("addWater");
+
+        // Scenes are checked as a whole
+        assert projection.check(new String[]{"turnOn", "addWater", "turnOn"}, true) == 2;
+        assert projection.getState().equals(initial);
+        assert projection.check(new String[]{"turnOn", "addWater", "placeCup"}, false) == -1;
+        assert projection.getInFlight() == 0;
+        assert projection.check(new String[]{"turnOn", "addWater", "placeCup"}, true) == -1;
+        assert projection.getInFlight() == 3;
+        for (int i = 0; i < 3; i++) {
+            projection.completed(true);
+        }
+
+        // After a failure the projection restarts from the twin
+        assert projection.admit("turnOn");
+        assert projection.admit("addWater");
+        projection.completed(false);
+        assert projection.admit("turnOn");
+        LOGGER.info("[CM001] Projected state: " + projection.getState());
+    }
+}
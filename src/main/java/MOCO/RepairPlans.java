@@ -0,0 +1,221 @@
+package MOCO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shortest repair plans of a behavior model. The shortest paths from a state are searched
+ * once, on the first repair that starts there, and kept in arrays no wider than the state
+ * and API counts need; later plans from that state are read off them without searching.
+ */
+public class RepairPlans {
+    public static final String START_FROM_ORIGIN = "START_FROM_ORIGIN";
+
+    private final BehaviorAutomaton automaton;
+    private final int stateCount;
+    private final int apiCount;
+
+    /**
+     * id of the initial state S0, or -1 if the model has none
+     */
+    private final int origin;
+
+    /**
+     * source -&gt; shortest paths from it, null until a plan starts there
+     */
+    private final AtomicReferenceArray<Paths> bySource;
+
+    RepairPlans(BehaviorAutomaton automaton) {
+        this.automaton = automaton;
+        this.stateCount = automaton.stateCount();
+        this.apiCount = automaton.apiCount();
+        this.bySource = new AtomicReferenceArray<>(stateCount);
+        int originId = -1;
+        for (int state = 0; state < stateCount && originId < 0; state++) {
+            if ("S0".equals(automaton.nodeId(state))) {
+                originId = state;
+            }
+        }
+        this.origin = originId;
+    }
+
+    /**
+     * Plan the actions that take a device from its current state to the expected one.
+     * Prefers a plan that ends with the api whose execution deviated, then any shortest
+     * plan. If the expected state is unreachable, the plan restarts the device from the
+     * initial state first ({@link #START_FROM_ORIGIN}).
+     *
+     * @param source current state id, -1 if the state is not part of the model
+     * @param target expected state id
+     * @param api api id of the deviated command, -1 for no preference
+     * @return api names, empty if there is no plan
+     */
+    public List<String> plan(int source, int target, int api) {
+        if (target < 0) {
+            return Collections.emptyList();
+        }
+        List<String> plan = new ArrayList<>();
+        if (source >= 0 && appendPlan(plan, source, target, api)) {
+            return plan;
+        }
+        if (origin >= 0) {
+            plan.add(START_FROM_ORIGIN);
+            if (appendPlan(plan, origin, target, api)) {
+                return plan;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public List<String> plan(String source, String target, String api) {
+        return plan(automaton.stateId(source), automaton.stateId(target), automaton.apiId(api));
+    }
+
+    /**
+     * @return number of steps on a shortest path, -1 if unreachable
+     */
+    public int distance(int source, int target) {
+        return paths(source).distance.get(target);
+    }
+
+    private Paths paths(int source) {
+        Paths paths = bySource.get(source);
+        if (paths == null) {
+            bySource.compareAndSet(source, null, new Paths(source));
+            paths = bySource.get(source);
+        }
+        return paths;
+    }
+
+    private boolean appendPlan(List<String> plan, int source, int target, int api) {
+        if (source == target) {
+            return true;
+        }
+        Paths paths = paths(source);
+        if (api >= 0) {
+            // The nearest state from which the api reaches the target
+            int from = -1;
+            for (int state = 0; state < stateCount; state++) {
+                int distance = paths.distance.get(state);
+                if (distance >= 0 && automaton.next(state, api) == target && (from < 0 || distance < paths.distance.get(from))) {
+                    from = state;
+                }
+            }
+            if (from >= 0) {
+                paths.append(plan, from);
+                plan.add(automaton.apiName(api));
+                return true;
+            }
+        }
+        if (paths.distance.get(target) < 0) {
+            return false;
+        }
+        paths.append(plan, target);
+        return true;
+    }
+
+    // Breadth-first search tree of the transition table from one source
+    private class Paths {
+        private final int source;
+        // state -> number of steps on a shortest path, -1 if unreachable
+        private final Column distance;
+        // state -> state it is reached from on a shortest path
+        private final Column previous;
+        // state -> api it is reached with on a shortest path
+        private final Column previousApi;
+
+        Paths(int source) {
+            this.source = source;
+            this.distance = new Column(stateCount, stateCount);
+            this.previous = new Column(stateCount, stateCount);
+            this.previousApi = new Column(stateCount, apiCount);
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            distance.set(source, 0);
+            queue[tail++] = source;
+            while (head < tail) {
+                int state = queue[head++];
+                for (int api = 0; api < apiCount; api++) {
+                    int next = automaton.next(state, api);
+                    if (next >= 0 && distance.get(next) < 0) {
+                        distance.set(next, distance.get(state) + 1);
+                        previous.set(next, state);
+                        previousApi.set(next, api);
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        // Append the apis of the shortest path to a reachable target
+        void append(List<String> plan, int target) {
+            int start = plan.size();
+            for (int state = target; state != source; state = previous.get(state)) {
+                plan.add(automaton.apiName(previousApi.get(state)));
+            }
+            Collections.reverse(plan.subList(start, plan.size()));
+        }
+    }
+
+    // Ints in [-1, max], held in the narrowest array that fits them
+    private static final class Column {
+        private final byte[] bytes;
+        private final short[] shorts;
+        private final int[] ints;
+
+        Column(int length, int max) {
+            bytes = max <= Byte.MAX_VALUE ? new byte[length] : null;
+            shorts = bytes == null && max <= Short.MAX_VALUE ? new short[length] : null;
+            ints = bytes == null && shorts == null ? new int[length] : null;
+            for (int i = 0; i < length; i++) {
+                set(i, -1);
+            }
+        }
+
+        int get(int i) {
+            return bytes != null ? bytes[i] : shorts != null ? shorts[i] : ints[i];
+        }
+
+        void set(int i, int value) {
+            if (bytes != null) {
+                bytes[i] = (byte) value;
+            } else if (shorts != null) {
+                shorts[i] = (short) value;
+            } else {
+                ints[i] = value;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        for (String deviceType : new String[]{"Gateway", "Yeelight", "CoffeeMachine", "WashingMachine"}) {
+            BehaviorAutomaton automaton = ModelRegistry.shared().automaton(deviceType);
+            RepairPlans plans = automaton.repairPlans();
+            int n = automaton.stateCount();
+            // Nothing is searched before the first plan
+            for (int source = 0; source < n; source++) {
+                assert plans.bySource.get(source) == null;
+            }
+            for (int source = 0; source < n; source++) {
+                for (int target = 0; target < n; target++) {
+                    for (int api = -1; api < automaton.apiCount(); api++) {
+                        List<String> plan = plans.plan(source, target, api);
+                        int state = source;
+                        for (String step : plan) {
+                            state = START_FROM_ORIGIN.equals(step) ? plans.origin : automaton.next(state, automaton.apiId(step));
+                        }
+                        // Every plan must reach the target, and shortest plans must be shortest
+                        assert plan.isEmpty() || state == target;
+                        assert source != target || plan.isEmpty();
+                        if (api < 0 && plans.distance(source, target) >= 0) {
+                            assert plan.size() == plans.distance(source, target);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
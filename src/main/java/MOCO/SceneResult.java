@@ -0,0 +1,86 @@
+package MOCO;
+
+import IoTSystem.CommandOutcome;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Verdict on a scene, a sequence of commands to one device that is accepted or rejected as
+ * a whole. A scene for a device id that is not registered is neither: its status is
+ * {@link Status#UNKNOWN_DEVICE} and no command has a failed index.
+ */
+public class SceneResult {
+    public enum Status {
+        ACCEPTED,
+        // A command is not allowed by the model, or is not addressed to the device
+        REJECTED,
+        // No device has the id; none of the commands was checked
+        UNKNOWN_DEVICE
+    }
+
+    private final Status status;
+    private final int failedIndex;
+    private final String reason;
+    private final List<CompletableFuture<CommandOutcome>> outcomes;
+
+    private SceneResult(Status status, int failedIndex, String reason, List<CompletableFuture<CommandOutcome>> outcomes) {
+        this.status = status;
+        this.failedIndex = failedIndex;
+        this.reason = reason;
+        this.outcomes = Collections.unmodifiableList(outcomes);
+    }
+
+    static SceneResult accepted(List<CompletableFuture<CommandOutcome>> outcomes) {
+        return new SceneResult(Status.ACCEPTED, -1, null, outcomes);
+    }
+
+    static SceneResult rejected(int failedIndex, String reason) {
+        return new SceneResult(Status.REJECTED, failedIndex, reason, Collections.emptyList());
+    }
+
+    static SceneResult unknownDevice(String deviceId) {
+        return new SceneResult(Status.UNKNOWN_DEVICE, -1, "unknown device " + deviceId, Collections.emptyList());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == Status.ACCEPTED;
+    }
+
+    /**
+     * @return index of the first command that made a rejected scene fail, otherwise -1
+     */
+    public int getFailedIndex() {
+        return failedIndex;
+    }
+
+    /**
+     * @return why the scene failed, null if it was accepted
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return outcome of each command of a submitted scene, in order; empty if the scene was
+     * only validated or was rejected
+     */
+    public List<CompletableFuture<CommandOutcome>> getOutcomes() {
+        return outcomes;
+    }
+
+    @Override
+    public String toString() {
+        return "SceneResult{" +
+                "'status':'" + status + '\'' +
+                ", 'failedIndex':" + failedIndex +
+                ", 'reason':'" + reason + '\'' +
+                ", 'commands':" + outcomes.size() +
+                '}';
+    }
+}
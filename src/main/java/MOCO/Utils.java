@@ -55,16 +55,21 @@ public class Utils {
     }
 
     public static Graph<Object, Object> loadGraphFromFile(String fileName) {
-        Graph<Object, Object> behaviorGraph = new Graph<>(true, true, false);
         try (FileReader reader = new FileReader(fileName)) {
-            Type edgeType = new TypeToken<Collection<graph.Edge>>(){}.getType();
-            Collection<graph.Edge> edges = new Gson().fromJson(reader, edgeType);
-            for (graph.Edge edge : edges) {
-                behaviorGraph.setEdge(edge.getSource(), edge.getTarget(), edge.getName(), edge.getName());
-            }
+            return loadGraph(reader);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        return new Graph<>(true, true, false);
+    }
+
+    public static Graph<Object, Object> loadGraph(Reader reader) {
+        Graph<Object, Object> behaviorGraph = new Graph<>(true, true, false);
+        Type edgeType = new TypeToken<Collection<graph.Edge>>(){}.getType();
+        Collection<graph.Edge> edges = new Gson().fromJson(reader, edgeType);
+        for (graph.Edge edge : edges) {
+            behaviorGraph.setEdge(edge.getSource(), edge.getTarget(), edge.getName(), edge.getName());
+        }
         return behaviorGraph;
     }
 
@@ -86,7 +91,7 @@ public class Utils {
         List<List<String>> paths = new ArrayList<>();
         if (!bfs(behaviorGraph, node1, node2, paths)) {
             List<List<String>> pathFromNode0 = new ArrayList<>();
-            bfs(behaviorGraph, node0, node1, pathFromNode0);
+            bfs(behaviorGraph, node0, node2, pathFromNode0);
             if (!pathFromNode0.isEmpty()) {
                 for (List<String> path : pathFromNode0) {
                     path.add(0, "START_FROM_ORIGIN");
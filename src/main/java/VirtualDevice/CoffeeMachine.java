@@ -344,6 +344,36 @@ public class CoffeeMachine {
         return new CoffeeMachine(json.get("waterReady"), json.get("beanReady").toString(), json.get("milkReady").toString(), json.get("cupReady").toString(), json.get("thisTimeCoffeeReady").toString(), json.get("isWorking").toString(), json.get("isPowerOn").toString(), json.get("currentWaterVolume").toString(), json.get("currentBeanVolume").toString(), json.get("currentMilkVolume").toString());
     }
 
+    public CoffeeMachine copy() {
+        return new CoffeeMachine(waterReady, beanReady, milkReady, cupReady, thisTimeCoffeeReady, isWorking, isPowerOn,
+                currentWaterVolume, currentBeanVolume, currentMilkVolume);
+    }
+
+    /**
+     * @return packed full state: the flags of {@link #systemStateKey()}, then water, bean
+     * and milk volumes in 16 bits each
+     */
+    public long stateKey() {
+        return systemStateKey()
+                | (long) (currentWaterVolume & 0xFFFF) << 7
+                | (long) (currentBeanVolume & 0xFFFF) << 23
+                | (long) (currentMilkVolume & 0xFFFF) << 39;
+    }
+
+    /**
+     * @return packed {@link #toSystemStateString()}: waterReady, beanReady, milkReady,
+     * cupReady, thisTimeCoffeeReady, isWorking, isPowerOn
+     */
+    public long systemStateKey() {
+        return (waterReady ? 1L : 0L)
+                | (beanReady ? 2L : 0L)
+                | (milkReady ? 4L : 0L)
+                | (cupReady ? 8L : 0L)
+                | (thisTimeCoffeeReady ? 16L : 0L)
+                | (isWorking ? 32L : 0L)
+                | (isPowerOn ? 64L : 0L);
+    }
+
     public String toSystemStateString() {
         return "CoffeeMachine{" +
                 "'waterReady':'" + waterReady + '\'' +
@@ -419,6 +449,13 @@ public class CoffeeMachine {
         coffeeMachine.addMilk();
         assert coffeeMachine.getCurrentMilkVolume() <= CoffeeMachine.MAX_MILK_VOLUME;
 
+        // Copies are independent and keep the state key
+        CoffeeMachine copy = coffeeMachine.copy();
+        assert copy.stateKey() == coffeeMachine.stateKey();
+        copy.placeCup();
+        assert copy.isCupReady() && !coffeeMachine.isCupReady();
+        assert copy.systemStateKey() == (coffeeMachine.systemStateKey() | 8L);
+
         // Test cup placement functionality
         coffeeMachine.placeCup();
         // Verify that the cup readiness state is true
@@ -43,6 +43,22 @@ public class Gateway {
         this.deviceList = deviceList;
     }
 
+    public boolean isLightOn() {
+        return lightOn;
+    }
+
+    public int getLightBrightness() {
+        return lightBrightness;
+    }
+
+    public boolean isAlarmOn() {
+        return alarmOn;
+    }
+
+    public int getDeviceList() {
+        return deviceList;
+    }
+
     public String turnLightOn() {
         if (!lightOn) {
             lightOn = true;
@@ -89,6 +105,30 @@ public class Gateway {
     }
 
 
+    public Gateway copy() {
+        return new Gateway(lightOn, lightBrightness, alarmOn, deviceList);
+    }
+
+    /**
+     * @return packed full state: lightOn, alarmOn, brightness and device count
+     */
+    public long stateKey() {
+        return (lightOn ? 1L : 0L)
+                | (alarmOn ? 2L : 0L)
+                | (long) (lightBrightness & 0xFF) << 2
+                | (long) (deviceList & 0xFF) << 10;
+    }
+
+    /**
+     * @return packed {@link #toSystemString()}: lightOn, alarmOn, brightness in range and device count
+     */
+    public long systemStateKey() {
+        return (lightOn ? 1L : 0L)
+                | (alarmOn ? 2L : 0L)
+                | (lightBrightness > 0 && lightBrightness <= 100 ? 4L : 0L)
+                | (long) deviceList << 3;
+    }
+
     public String toSystemString() {
         boolean brightnessInRange = lightBrightness > 0 && lightBrightness <= 100;
         return "Gateway{" +
@@ -118,5 +158,11 @@ public class Gateway {
         Gateway gateway = new Gateway(true, 50, true, 2);
         Gateway test = Gateway.fromString(gateway.toString());
         LOGGER.info(test.toString());
+        Gateway copy = test.copy();
+        assert copy.stateKey() == test.stateKey();
+        copy.setLightBrightness(80);
+        assert copy.stateKey() != test.stateKey() && copy.systemStateKey() == test.systemStateKey();
+        copy.removeDevice("light");
+        assert copy.systemStateKey() != test.systemStateKey();
     }
 }
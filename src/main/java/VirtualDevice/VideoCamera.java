@@ -54,6 +54,58 @@ public class VideoCamera {
         this.miniLevel = miniLevel;
     }
 
+    public boolean isPowerOn() {
+        return powerOn;
+    }
+
+    public boolean isMotionRecord() {
+        return motionRecord;
+    }
+
+    public boolean isLight() {
+        return light;
+    }
+
+    public boolean isFullColor() {
+        return fullColor;
+    }
+
+    public boolean isFlip() {
+        return flip;
+    }
+
+    public boolean isImproveProgram() {
+        return improveProgram;
+    }
+
+    public boolean isWdr() {
+        return wdr;
+    }
+
+    public boolean isTrack() {
+        return track;
+    }
+
+    public int getSdcardStatus() {
+        return sdcardStatus;
+    }
+
+    public boolean isWatermark() {
+        return watermark;
+    }
+
+    public int getMaxClient() {
+        return maxClient;
+    }
+
+    public int getNightMode() {
+        return nightMode;
+    }
+
+    public int getMiniLevel() {
+        return miniLevel;
+    }
+
     public String turnOn() {
         if (!powerOn) {
             powerOn = true;
@@ -244,6 +296,47 @@ public class VideoCamera {
     }
 
 
+    public VideoCamera copy() {
+        return new VideoCamera(powerOn, motionRecord, light, fullColor, flip, improveProgram, wdr, track, sdcardStatus,
+                watermark, maxClient, nightMode, miniLevel);
+    }
+
+    /**
+     * @return packed full state: the nine flags, then sdcardStatus, maxClient, nightMode
+     * and miniLevel in 12 bits each
+     */
+    public long stateKey() {
+        return flags()
+                | (long) (sdcardStatus & 0xFFF) << 9
+                | (long) (maxClient & 0xFFF) << 21
+                | (long) (nightMode & 0xFFF) << 33
+                | (long) (miniLevel & 0xFFF) << 45;
+    }
+
+    /**
+     * @return packed {@link #toSystemString()}: the nine flags, then whether sdcardStatus,
+     * maxClient, nightMode and miniLevel are positive
+     */
+    public long systemStateKey() {
+        return flags()
+                | (sdcardStatus > 0 ? 1L << 9 : 0L)
+                | (maxClient > 0 ? 1L << 10 : 0L)
+                | (nightMode > 0 ? 1L << 11 : 0L)
+                | (miniLevel > 0 ? 1L << 12 : 0L);
+    }
+
+    private long flags() {
+        return (powerOn ? 1L : 0L)
+                | (motionRecord ? 2L : 0L)
+                | (light ? 4L : 0L)
+                | (fullColor ? 8L : 0L)
+                | (flip ? 16L : 0L)
+                | (improveProgram ? 32L : 0L)
+                | (wdr ? 64L : 0L)
+                | (track ? 128L : 0L)
+                | (watermark ? 256L : 0L);
+    }
+
     public String toSystemString() {
         boolean sdcardStatusBoolean = sdcardStatus > 0;
         boolean maxClientBoolean = maxClient > 0;
@@ -309,6 +402,12 @@ public class VideoCamera {
         VideoCamera test = VideoCamera.fromString(videoCamera.toString());
         LOGGER.info(test.toString());
         LOGGER.info(test.toSystemString());
+        VideoCamera copy = test.copy();
+        assert copy.stateKey() == test.stateKey();
+        copy.turnOn();
+        copy.setMiniLevel(2);
+        assert copy.stateKey() != test.stateKey() && test.stateKey() == videoCamera.stateKey();
+        assert copy.systemStateKey() == (test.systemStateKey() | 1L);
     }
 
 }
@@ -32,6 +32,30 @@ public class WashingMachine {
         this.spinning = spinning;
     }
 
+    public boolean isPowerOn() {
+        return powerOn;
+    }
+
+    public boolean isDoorOpen() {
+        return doorOpen;
+    }
+
+    public boolean isWaterIn() {
+        return waterIn;
+    }
+
+    public boolean isWashing() {
+        return washing;
+    }
+
+    public boolean isRinsing() {
+        return rinsing;
+    }
+
+    public boolean isSpinning() {
+        return spinning;
+    }
+
     public String turnOn() {
         if (!powerOn) {
             powerOn = true;
@@ -117,6 +141,27 @@ public class WashingMachine {
         }
     }
 
+    public WashingMachine copy() {
+        return new WashingMachine(powerOn, doorOpen, waterIn, washing, rinsing, spinning);
+    }
+
+    /**
+     * The whole state is six flags, so the full and the system state keys are the same.
+     * @return packed state: powerOn, doorOpen, waterIn, washing, rinsing, spinning
+     */
+    public long stateKey() {
+        return (powerOn ? 1L : 0L)
+                | (doorOpen ? 2L : 0L)
+                | (waterIn ? 4L : 0L)
+                | (washing ? 8L : 0L)
+                | (rinsing ? 16L : 0L)
+                | (spinning ? 32L : 0L);
+    }
+
+    public long systemStateKey() {
+        return stateKey();
+    }
+
     @Override
     public String toString() {
         return "WashingMachine{" +
@@ -142,6 +187,8 @@ public class WashingMachine {
         washingMachine.startWashing();
         washingMachine.startRinsing();
         washingMachine.startSpinning();
+        WashingMachine copy = washingMachine.copy();
+        assert copy.stateKey() == washingMachine.stateKey() && copy.stateKey() == 0b111101;
         washingMachine.stop();
         washingMachine.turnOff();
         LOGGER.info(washingMachine.toString());
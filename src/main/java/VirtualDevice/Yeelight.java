@@ -35,6 +35,22 @@ public class Yeelight {
 
 
 
+    public int getBrightness() {
+        return brightness;
+    }
+
+    public int getColorMode() {
+        return colorMode;
+    }
+
+    public boolean isPowerOn() {
+        return powerOn;
+    }
+
+    public int[] getRgb() {
+        return rgb;
+    }
+
     public String turnOn() {
         if (!powerOn) {
             powerOn = true;
@@ -89,6 +105,33 @@ public class Yeelight {
         }
     }
 
+    public Yeelight copy() {
+        return new Yeelight(brightness, colorMode, powerOn, rgb[0], rgb[1], rgb[2]);
+    }
+
+    /**
+     * Packed full state: powerOn, then brightness, color mode and rgb, each offset by one
+     * so the unset value -1 packs as 0.
+     * @return state key, equal for equal states
+     */
+    public long stateKey() {
+        return (powerOn ? 1L : 0L)
+                | (long) ((brightness + 1) & 0xFF) << 1
+                | (long) ((colorMode + 1) & 0xF) << 9
+                | (long) ((rgb[0] + 1) & 0x1FF) << 13
+                | (long) ((rgb[1] + 1) & 0x1FF) << 22
+                | (long) ((rgb[2] + 1) & 0x1FF) << 31;
+    }
+
+    /**
+     * @return packed {@link #toSystemString()}: powerOn, brightness and rgb in range
+     */
+    public long systemStateKey() {
+        return (powerOn ? 1L : 0L)
+                | (brightness > 0 && brightness <= 100 ? 2L : 0L)
+                | (rgb[0] + rgb[1] + rgb[2] >= 0 ? 4L : 0L);
+    }
+
     public String toSystemString() {
         boolean brightnessInRange = brightness > 0 && brightness <= 100;
         int rbgInt = rgb[0]+rgb[1]+rgb[2];
@@ -124,6 +167,13 @@ public class Yeelight {
         String content = new Yeelight(50, true, 255, 255, 255).toString();
         Yeelight test = Yeelight.fromString(content);
         LOGGER.info("Yeelight: " + test.toString());
+        Yeelight copy = test.copy();
+        assert copy.stateKey() == test.stateKey();
+        copy.setBrightness(20);
+        assert copy.stateKey() != test.stateKey() && copy.systemStateKey() == test.systemStateKey();
+        copy.turnOff();
+        assert copy.systemStateKey() != test.systemStateKey();
+        assert new Yeelight().systemStateKey() == 0;
     }
 
 }
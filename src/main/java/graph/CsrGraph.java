@@ -0,0 +1,294 @@
+package graph;
+
+import java.util.*;
+
+/**
+ * Immutable graph in compressed sparse row form. Nodes are dense int ids, node ids and
+ * edge names are kept once in string dictionaries, and the edges of node v are the
+ * slots {@code [outBegin(v), outEnd(v))} of flat target and label arrays, so traversal
+ * neither allocates nor hashes strings. Node and edge data are not kept.
+ *
+ * Build one with {@link #freeze(Graph)} or {@link Graph#freeze()}. An undirected graph
+ * stores every edge in both directions.
+ */
+public final class CsrGraph {
+
+    private final boolean directed;
+
+    /**
+     * node -&gt; node id
+     */
+    private final String[] nodes;
+
+    /**
+     * node id -&gt; node. Only used to translate ids, never while traversing.
+     */
+    private final Map<String, Integer> nodeIndex;
+
+    /**
+     * label -&gt; edge name, null for unnamed edges
+     */
+    private final String[] labels;
+
+    /**
+     * node -&gt; first slot of its out-edges; outOffsets[nodeCount] == number of slots
+     */
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] outLabels;
+
+    /**
+     * node -&gt; first slot of its in-edges
+     */
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final int[] inLabels;
+
+    private CsrGraph(boolean directed, String[] nodes, String[] labels, int[] sources, int[] targets, int[] edgeLabels) {
+        this.directed = directed;
+        this.nodes = nodes;
+        this.labels = labels;
+        this.nodeIndex = new HashMap<>(nodes.length * 2);
+        for (int v = 0; v < nodes.length; v++) {
+            nodeIndex.put(nodes[v], v);
+        }
+        this.outOffsets = new int[nodes.length + 1];
+        this.outTargets = new int[sources.length];
+        this.outLabels = new int[sources.length];
+        fill(sources, targets, edgeLabels, outOffsets, outTargets, outLabels);
+        if (directed) {
+            this.inOffsets = new int[nodes.length + 1];
+            this.inSources = new int[sources.length];
+            this.inLabels = new int[sources.length];
+            fill(targets, sources, edgeLabels, inOffsets, inSources, inLabels);
+        } else {
+            this.inOffsets = outOffsets;
+            this.inSources = outTargets;
+            this.inLabels = outLabels;
+        }
+    }
+
+    /**
+     * Freeze the topology and edge names of a graph. Nodes keep the order of
+     * {@link Graph#getNodes()} and the edges of each node the order of {@link Graph#getEdges()}.
+     * @param graph graph
+     * @return immutable copy
+     */
+    public static CsrGraph freeze(Graph<?, ?> graph) {
+        Map<String, Integer> nodeIds = new LinkedHashMap<>();
+        for (String node : graph.getNodes()) {
+            nodeIds.put(node, nodeIds.size());
+        }
+        Map<String, Integer> labelIds = new LinkedHashMap<>();
+        int slots = graph.isDirected() ? graph.edgeCount() : graph.edgeCount() * 2;
+        int[] sources = new int[slots];
+        int[] targets = new int[slots];
+        int[] edgeLabels = new int[slots];
+        int i = 0;
+        for (Edge edge : graph.getEdges()) {
+            int source = nodeIds.get(edge.getSource());
+            int target = nodeIds.get(edge.getTarget());
+            int label = labelOf(labelIds, edge.getName());
+            sources[i] = source;
+            targets[i] = target;
+            edgeLabels[i++] = label;
+            if (!graph.isDirected()) {
+                sources[i] = target;
+                targets[i] = source;
+                edgeLabels[i++] = label;
+            }
+        }
+        String[] labels = new String[labelIds.size()];
+        for (Map.Entry<String, Integer> entry : labelIds.entrySet()) {
+            labels[entry.getValue()] = entry.getKey();
+        }
+        return new CsrGraph(graph.isDirected(), nodeIds.keySet().toArray(new String[0]), labels, sources, targets, edgeLabels);
+    }
+
+    // Counting sort of the edges by their key node, stable in edge order
+    private static void fill(int[] keys, int[] values, int[] edgeLabels, int[] offsets, int[] slotValues, int[] slotLabels) {
+        for (int key : keys) {
+            offsets[key + 1]++;
+        }
+        for (int v = 0; v < offsets.length - 1; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int e = 0; e < keys.length; e++) {
+            int slot = next[keys[e]]++;
+            slotValues[slot] = values[e];
+            slotLabels[slot] = edgeLabels[e];
+        }
+    }
+
+    private static int labelOf(Map<String, Integer> labelIds, String name) {
+        Integer id = labelIds.get(name);
+        if (id == null) {
+            id = labelIds.size();
+            labelIds.put(name, id);
+        }
+        return id;
+    }
+
+    public boolean isDirected() {
+        return directed;
+    }
+
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * @return number of edges; an undirected edge counts once
+     */
+    public int edgeCount() {
+        return directed ? outTargets.length : outTargets.length / 2;
+    }
+
+    /**
+     * @param nodeId node id of the original graph
+     * @return node, or -1 if the graph has no such node
+     */
+    public int node(String nodeId) {
+        Integer node = nodeIndex.get(nodeId);
+        return node == null ? -1 : node;
+    }
+
+    public String nodeId(int node) {
+        return nodes[node];
+    }
+
+    public int labelCount() {
+        return labels.length;
+    }
+
+    /**
+     * @param name edge name
+     * @return label, or -1 if no edge has that name
+     */
+    public int label(String name) {
+        for (int l = 0; l < labels.length; l++) {
+            if (Objects.equals(labels[l], name)) {
+                return l;
+            }
+        }
+        return -1;
+    }
+
+    public String labelName(int label) {
+        return labels[label];
+    }
+
+    public int outBegin(int node) {
+        return outOffsets[node];
+    }
+
+    public int outEnd(int node) {
+        return outOffsets[node + 1];
+    }
+
+    public int outDegree(int node) {
+        return outOffsets[node + 1] - outOffsets[node];
+    }
+
+    /**
+     * @param slot out-edge slot in [outBegin(v), outEnd(v))
+     * @return target node
+     */
+    public int target(int slot) {
+        return outTargets[slot];
+    }
+
+    /**
+     * @param slot out-edge slot
+     * @return label of the edge
+     */
+    public int outLabel(int slot) {
+        return outLabels[slot];
+    }
+
+    public int inBegin(int node) {
+        return inOffsets[node];
+    }
+
+    public int inEnd(int node) {
+        return inOffsets[node + 1];
+    }
+
+    public int inDegree(int node) {
+        return inOffsets[node + 1] - inOffsets[node];
+    }
+
+    /**
+     * @param slot in-edge slot in [inBegin(v), inEnd(v))
+     * @return source node
+     */
+    public int source(int slot) {
+        return inSources[slot];
+    }
+
+    /**
+     * @param slot in-edge slot
+     * @return label of the edge
+     */
+    public int inLabel(int slot) {
+        return inLabels[slot];
+    }
+
+    /**
+     * @param source source node
+     * @param label edge label
+     * @return target of the first out-edge of source with that label, or -1
+     */
+    public int successor(int source, int label) {
+        for (int slot = outOffsets[source]; slot < outOffsets[source + 1]; slot++) {
+            if (outLabels[slot] == label) {
+                return outTargets[slot];
+            }
+        }
+        return -1;
+    }
+
+    public boolean hasEdge(int source, int target) {
+        for (int slot = outOffsets[source]; slot < outOffsets[source + 1]; slot++) {
+            if (outTargets[slot] == target) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        Graph<Object, Object> graph = new Graph<>(true, true, false);
+        graph.setEdge("a", "b", null, "x");
+        graph.setEdge("a", "c", null, "y");
+        graph.setEdge("b", "c", null, "x");
+        graph.setEdge("c", "a", null, "z");
+        graph.setNode("d");
+        CsrGraph csr = graph.freeze();
+        assert csr.nodeCount() == 4 && csr.edgeCount() == 4 && csr.labelCount() == 3;
+
+        // Same adjacency as the original graph
+        for (String nodeId : graph.getNodes()) {
+            int v = csr.node(nodeId);
+            Set<String> expected = new HashSet<>();
+            for (Edge edge : graph.outEdges(nodeId)) {
+                expected.add(edge.getTarget() + "/" + edge.getName());
+            }
+            Set<String> actual = new HashSet<>();
+            for (int slot = csr.outBegin(v); slot < csr.outEnd(v); slot++) {
+                actual.add(csr.nodeId(csr.target(slot)) + "/" + csr.labelName(csr.outLabel(slot)));
+            }
+            assert expected.equals(actual);
+            assert csr.inDegree(v) == graph.inEdges(nodeId).size();
+        }
+        assert csr.successor(csr.node("a"), csr.label("y")) == csr.node("c");
+        assert csr.outDegree(csr.node("d")) == 0;
+
+        Graph<Object, Object> undirected = new Graph<>(false, false, false);
+        undirected.setEdge("a", "b");
+        CsrGraph frozen = undirected.freeze();
+        assert frozen.edgeCount() == 1;
+        assert frozen.hasEdge(frozen.node("a"), frozen.node("b")) && frozen.hasEdge(frozen.node("b"), frozen.node("a"));
+    }
+}
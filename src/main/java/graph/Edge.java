@@ -1,5 +1,7 @@
 package graph;
 
+import java.util.Objects;
+
 public class Edge {
     private String source;
     private String target;
@@ -39,11 +41,18 @@ public class Edge {
 
     @Override
     public boolean equals(Object obj) {
-        if( obj instanceof Edge){
-            Edge _edge = (Edge) obj;
-            return _edge.toString().equals(toString());
-        } else {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Edge)) {
             return false;
         }
+        Edge _edge = (Edge) obj;
+        return Objects.equals(source, _edge.source) && Objects.equals(target, _edge.target) && Objects.equals(name, _edge.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(source, target, name);
     }
 }
@@ -68,6 +68,11 @@ public class Graph<N, E> implements Serializable {
      */
     private Map<String, Edge> edgeObjs = new HashMap<>();
 
+    /**
+     * source nodeId -&gt; target nodeId -&gt; edges between them
+     */
+    private Map<String, Map<String, Set<Edge>>> edgeIndex = new HashMap<>();
+
     public Map<String, E> getEdgeLabels() {
         return edgeLabels;
     }
@@ -314,14 +319,21 @@ public class Graph<N, E> implements Serializable {
         return edgeLabels.get(edgeId);
     }
 
+    /**
+     * All edges from sourceId to targetId, whatever their name. Takes O(out-degree) time.
+     * @param sourceId source node id
+     * @param targetId target node id
+     * @return edges
+     */
     public Set<Edge> getEdgesBasedOnNodes(String sourceId, String targetId){
-        Set<Edge> results = new HashSet<>();
-        String edgeId = sourceId + EDGE_KEY_DELIM + targetId + EDGE_KEY_DELIM;
-        edgeObjs.keySet().forEach(key->{
-            if (key.contains(edgeId))
-                results.add(edgeObjs.get(key));
-        });
-        return results;
+        if (!directed && sourceId.compareTo(targetId) > 0) {
+            String tmp = sourceId;
+            sourceId = targetId;
+            targetId = tmp;
+        }
+        Map<String, Set<Edge>> targets = edgeIndex.get(sourceId);
+        Set<Edge> edges = targets == null ? null : targets.get(targetId);
+        return edges == null ? new HashSet<>() : new HashSet<>(edges);
     }
 
     /**
@@ -404,6 +416,8 @@ public class Graph<N, E> implements Serializable {
         linkCounter = sucs.get(sourceId).getOrDefault(targetId, 0);
         sucs.get(sourceId).put(targetId, ++linkCounter);
 
+        edgeIndex.computeIfAbsent(sourceId, k -> new HashMap<>()).computeIfAbsent(targetId, k -> new HashSet<>()).add(edgeObj);
+
         ++edgeCount;
         return this;
     }
@@ -473,6 +487,16 @@ public class Graph<N, E> implements Serializable {
             decrementOrRemoveEntry(sucs.get(sourceId), targetId);
             decrementOrRemoveEntry(pred.get(targetId), sourceId);
 
+            Map<String, Set<Edge>> targets = edgeIndex.get(sourceId);
+            Set<Edge> edges = targets.get(targetId);
+            edges.remove(edge);
+            if (edges.isEmpty()) {
+                targets.remove(targetId);
+                if (targets.isEmpty()) {
+                    edgeIndex.remove(sourceId);
+                }
+            }
+
             --edgeCount;
         }
 
@@ -865,6 +889,15 @@ public class Graph<N, E> implements Serializable {
         }
     }
 
+    /**
+     * Immutable compressed sparse row copy of the topology and edge names of this graph.
+     *
+     * @return frozen graph
+     */
+    public CsrGraph freeze() {
+        return CsrGraph.freeze(this);
+    }
+
     /**
      * Finds all connected components in a graph and returns an array of these components. Each component is itself an array that contains the ids of nodes in the component.
      *
@@ -1,45 +1,77 @@
 package graph.algorithms;
 
+import graph.CsrGraph;
 import graph.Graph;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class Components {
 
     public <N, E> List<Graph<N, E>> getComponents(Graph<N, E> graph) {
+        CsrGraph csr = graph.freeze();
+        int[] labels = components(csr);
 
-        Map<String, Boolean> visited = new HashMap<>();
         List<Graph<N, E>> graphs = new ArrayList<>();
-
-        graph.getNodes().forEach(nodeId -> {
-            Graph<N, E> component = new Graph<>();
-            findComponent(visited, graph, nodeId, component);
-            if (component.nodeCount() > 0) {
-                graphs.add(component);
+        for (int node = 0; node < labels.length; node++) {
+            if (labels[node] == graphs.size()) {
+                graphs.add(new Graph<>());
+            }
+            String nodeId = csr.nodeId(node);
+            graphs.get(labels[node]).setNode(nodeId, graph.getNode(nodeId));
+        }
+        for (int node = 0; node < labels.length; node++) {
+            Graph<N, E> component = graphs.get(labels[node]);
+            String nodeId = csr.nodeId(node);
+            for (int slot = csr.outBegin(node); slot < csr.outEnd(node); slot++) {
+                String successor = csr.nodeId(csr.target(slot));
+                component.setEdge(nodeId, successor, graph.getEdge(nodeId, successor));
             }
-        });
+        }
         return graphs;
     }
 
-    private <N, E> void findComponent(Map<String, Boolean> visited, Graph<N, E> graph, String nodeId, Graph<N, E> component) {
-        if (visited.containsKey(nodeId))
-            return;
-        visited.put(nodeId, true);
-
-        component.setNode(nodeId, graph.getNode(nodeId));
-
-        graph.successors(nodeId).forEach(successor -> {
-            findComponent(visited, graph, successor, component);
-            component.setEdge(nodeId, successor, graph.getEdge(nodeId, successor));
-//            System.out.println("--------- \n" + graph.getEdge(nodeId, successor)+ "\n---------");
-        });
-        graph.predecessors(nodeId).forEach(predecessor -> {
-            findComponent(visited, graph, predecessor, component);
-            component.setEdge(predecessor, nodeId, graph.getEdge(predecessor, nodeId));
-        });
+    /**
+     * Weakly connected components, found by an iterative depth-first search over in- and
+     * out-edges with an explicit stack.
+     * @param graph graph
+     * @return node -&gt; component; components are numbered in the order of their first node
+     */
+    public int[] components(CsrGraph graph) {
+        int n = graph.nodeCount();
+        int[] labels = new int[n];
+        int[] stack = new int[n];
+        Arrays.fill(labels, -1);
+
+        int components = 0;
+        for (int root = 0; root < n; root++) {
+            if (labels[root] >= 0) {
+                continue;
+            }
+            int sp = 0;
+            labels[root] = components;
+            stack[sp++] = root;
+            while (sp > 0) {
+                int node = stack[--sp];
+                for (int slot = graph.outBegin(node); slot < graph.outEnd(node); slot++) {
+                    int successor = graph.target(slot);
+                    if (labels[successor] < 0) {
+                        labels[successor] = components;
+                        stack[sp++] = successor;
+                    }
+                }
+                for (int slot = graph.inBegin(node); slot < graph.inEnd(node); slot++) {
+                    int predecessor = graph.source(slot);
+                    if (labels[predecessor] < 0) {
+                        labels[predecessor] = components;
+                        stack[sp++] = predecessor;
+                    }
+                }
+            }
+            components++;
+        }
+        return labels;
     }
 
 }
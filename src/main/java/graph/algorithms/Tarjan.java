@@ -1,19 +1,18 @@
 package graph.algorithms;
 
+import graph.CsrGraph;
 import graph.Graph;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Tarjan {
 
-    private int index = 0;
-    private List<String> stack = new ArrayList<>();
-    private Map<String, Entry> visited = new HashMap<>();
-    private List<List<String>> result = new ArrayList<>();
-
     /**
      * This function is an implementation of Tarjan's algorithm which finds all strongly connected components
      * in the directed graph g. Each strongly connected component is composed of nodes
@@ -27,62 +26,163 @@ public class Tarjan {
      * @return This function returns an array of components. Each component is itself an array that contains the ids of all nodes in the component.
      */
     public <N, E> List<List<String>> tarjan(Graph<N, E> graph) {
+        CsrGraph csr = graph.freeze();
+        int[] order = new int[csr.nodeCount()];
+        int[] labels = tarjan(csr, order);
 
-        index = 0;
-        stack = new ArrayList<>();
-        visited = new HashMap<>();
-        result = new ArrayList<>();
-
-        graph.getNodes().forEach(nodeId -> {
-            if (!visited.containsKey(nodeId)){
-                recursion(graph, nodeId);
+        List<List<String>> result = new ArrayList<>();
+        for (int node : order) {
+            if (labels[node] == result.size()) {
+                result.add(new ArrayList<>());
             }
-        });
+            result.get(labels[node]).add(csr.nodeId(node));
+        }
         return result;
     }
 
-    private <E, N> void recursion(Graph<N, E> graph, String nodeId) {
-        Entry entry;
-        if(visited.containsKey(nodeId)) {
-            entry = visited.get(nodeId);
-        } else {
-            entry = new Entry();
-            visited.put(nodeId, entry);
-        }
-        entry.onStack = true;
-        entry.lowLink = index;
-        entry.index = index++;
-        stack.add(nodeId);
-        graph.successors(nodeId).forEach( successor -> {
-            if(!visited.containsKey(successor)) {
-                recursion(graph, successor);
-                entry.lowLink = Math.min(entry.lowLink, visited.get(successor).lowLink);
-            } else if (visited.get(successor).onStack) {
-                entry.lowLink = Math.min(entry.lowLink, visited.get(successor).index);
+    /**
+     * Iterative Tarjan's algorithm on int node ids, with an explicit call stack so deep
+     * graphs cannot overflow the thread stack.
+     * @param graph directed graph
+     * @return node -&gt; component; components are numbered in the order they are completed,
+     * which is a reverse topological order of the condensation
+     */
+    public int[] tarjan(CsrGraph graph) {
+        return tarjan(graph, new int[graph.nodeCount()]);
+    }
+
+    /**
+     * @param order receives the nodes in the order they are popped off the Tarjan stack
+     */
+    private int[] tarjan(CsrGraph graph, int[] order) {
+        int n = graph.nodeCount();
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        int[] labels = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callNode = new int[n];
+        int[] callSlot = new int[n];
+        Arrays.fill(index, -1);
+
+        int counter = 0;
+        int components = 0;
+        int popped = 0;
+        int sp = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            index[root] = lowLink[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            callNode[depth] = root;
+            callSlot[depth++] = graph.outBegin(root);
+
+            while (depth > 0) {
+                int node = callNode[depth - 1];
+                if (callSlot[depth - 1] < graph.outEnd(node)) {
+                    int successor = graph.target(callSlot[depth - 1]++);
+                    if (index[successor] < 0) {
+                        index[successor] = lowLink[successor] = counter++;
+                        stack[sp++] = successor;
+                        onStack[successor] = true;
+                        callNode[depth] = successor;
+                        callSlot[depth++] = graph.outBegin(successor);
+                    } else if (onStack[successor]) {
+                        lowLink[node] = Math.min(lowLink[node], index[successor]);
+                    }
+                    continue;
+                }
+
+                // All successors visited: node is done
+                if (lowLink[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--sp];
+                        onStack[member] = false;
+                        labels[member] = components;
+                        order[popped++] = member;
+                    } while (member != node);
+                    components++;
+                }
+                depth--;
+                if (depth > 0) {
+                    int caller = callNode[depth - 1];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+                }
             }
-        });
-
-        if (entry.lowLink == entry.index) {
-            List<String> comp = new ArrayList<>();
-            String w;
-            do {
-                if (stack.size() > 0) {
-                    w = stack.remove(stack.size() - 1);
-                    visited.get(w).onStack = false;
-                    comp.add(w);
-                } else {
-                    w = null;
+        }
+        return labels;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Graph<Object, Object> graph = new Graph<>();
+        graph.setPath("a", "b", "c", "a");
+        graph.setEdge("c", "d");
+        graph.setPath("d", "e", "d");
+        List<List<String>> components = new Tarjan().tarjan(graph);
+        assert components.size() == 2;
+        // Components complete in reverse topological order
+        assert components.get(0).containsAll(Arrays.asList("d", "e"));
+        assert components.get(1).containsAll(Arrays.asList("a", "b", "c"));
+
+        // A chain far deeper than a recursive implementation can handle
+        Graph<Object, Object> chain = new Graph<>();
+        for (int i = 0; i < 200000; i++) {
+            chain.setEdge("n" + i, "n" + (i + 1));
+        }
+        chain.setEdge("n200000", "n0");
+        int[] labels = new Tarjan().tarjan(chain.freeze());
+        for (int label : labels) {
+            assert label == 0;
+        }
+        assert new Components().components(chain.freeze())[0] == 0;
+
+        // The learned video camera model: the recursive implementation found four
+        // components of 256 states each
+        Graph<Object, Object> camera = readDot("src/main/java/MOCO/modelFiles/videoCamera_output.dot");
+        assert camera.getNodes().size() == 1024;
+        List<List<String>> cameraComponents = new Tarjan().tarjan(camera);
+        assert cameraComponents.size() == 4;
+        Set<String> seen = new HashSet<>();
+        for (List<String> component : cameraComponents) {
+            assert component.size() == 256;
+            assert seen.addAll(component);
+            // A component is what its first node reaches and is reached from
+            Set<String> reached = reach(component.get(0), camera::successors);
+            reached.retainAll(reach(component.get(0), camera::predecessors));
+            assert reached.equals(new HashSet<>(component));
+        }
+    }
+
+    private static Set<String> reach(String start, Function<String, Collection<String>> next) {
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        reached.add(start);
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            for (String node : next.apply(pending.pop())) {
+                if (reached.add(node)) {
+                    pending.push(node);
                 }
-            } while (w != null && !w.equals(nodeId));
-            result.add(comp);
+            }
         }
+        return reached;
     }
 
-    private class Entry {
-        boolean onStack = true;
-        int lowLink = 0;
-        int index = 0;
+    // Edges of a model written by the learner, one "S1 -> S2 [label="api"];" per line
+    private static Graph<Object, Object> readDot(String fileName) throws IOException {
+        Pattern edge = Pattern.compile("\\s*(\\S+) -> (\\S+) \\[label=\"(\\w+)\"];");
+        Graph<Object, Object> graph = new Graph<>();
+        for (String line : Files.readAllLines(Paths.get(fileName))) {
+            Matcher matcher = edge.matcher(line);
+            if (matcher.matches()) {
+                graph.setEdge(matcher.group(1), matcher.group(2));
+            }
+        }
+        return graph;
     }
 
 }
-